@@ -0,0 +1,154 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Small collection with the layout of NPL, generated with a fixed seed so every
+ * run of the benchmarks measures the same data. The words follow a Zipf
+ * distribution, like the ones of a real collection, so the postings have the
+ * usual mix of very long and very short lists.
+ */
+public class BenchmarkCollection {
+
+    public final static int DOCS = 5000;
+    public final static int QUERIES = 100;
+
+    private final static int VOCABULARY = 8000;
+    private final static long SEED = 42;
+
+    public final Path dir;
+    public final Path docsFile;
+    public final Path queriesFile;
+    public final Path assessmentsFile;
+
+    private BenchmarkCollection(Path dir) {
+        this.dir = dir;
+        this.docsFile = dir.resolve("doc-text");
+        this.queriesFile = dir.resolve("query-text");
+        this.assessmentsFile = dir.resolve("rlv-ass");
+    }
+
+    /** Writes the documents, queries and assessments files in a new temporary directory */
+    public static BenchmarkCollection generate() throws IOException {
+        BenchmarkCollection collection = new BenchmarkCollection(Files.createTempDirectory("npl-bench"));
+        Random random = new Random(SEED);
+        String[] words = vocabulary(random);
+        double[] cumulative = zipf();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(collection.docsFile)) {
+            for (int id = 1; id <= DOCS; id++) {
+                writeRecord(writer, id, words, cumulative, random, 20 + random.nextInt(120));
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(collection.queriesFile)) {
+            for (int id = 1; id <= QUERIES; id++) {
+                writeRecord(writer, id, words, cumulative, random, 3 + random.nextInt(8));
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(collection.assessmentsFile)) {
+            for (int id = 1; id <= QUERIES; id++) {
+                writer.write(id + "\n");
+                int nRelevants = 5 + random.nextInt(30);
+                for (int n = 0; n < nRelevants; n++) {
+                    writer.write(String.format("%6d", 1 + random.nextInt(DOCS)));
+                    if (n % 8 == 7 || n == nRelevants - 1) {
+                        writer.write("\n");
+                    }
+                }
+                writer.write("   /\n");
+            }
+        }
+        return collection;
+    }
+
+    /** Indexes the documents in memory as IndexNPL does with its default profile */
+    public Directory index() throws IOException {
+        Directory index = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(index, new IndexWriterConfig(new StandardAnalyzer()));
+             NPLParser parser = new NPLParser(docsFile)) {
+            for (NPLParser.Record record = parser.next(); record != null; record = parser.next()) {
+                IndexNPL.indexDoc(writer, record.id(), record.text(), null);
+            }
+            writer.forceMerge(1);
+        }
+        return index;
+    }
+
+    /** Returns the text of every document */
+    public List<NPLParser.Record> documents() throws IOException {
+        List<NPLParser.Record> documents = new ArrayList<>();
+        try (NPLParser parser = new NPLParser(docsFile)) {
+            for (NPLParser.Record record = parser.next(); record != null; record = parser.next()) {
+                documents.add(record);
+            }
+        }
+        return documents;
+    }
+
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static void writeRecord(BufferedWriter writer, int id, String[] words, double[] cumulative,
+                                    Random random, int length) throws IOException {
+        writer.write(id + "\n");
+        for (int n = 0; n < length; n++) {
+            writer.write(words[sample(cumulative, random)]);
+            writer.write(n % 10 == 9 || n == length - 1 ? "\n" : " ");
+        }
+        writer.write("   /\n");
+    }
+
+    private static String[] vocabulary(Random random) {
+        String[] words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(7);
+            for (int n = 0; n < length; n++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+        return words;
+    }
+
+    /* Cumulative probabilities of the ranks of the vocabulary, with exponent 1 */
+    private static double[] zipf() {
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+}
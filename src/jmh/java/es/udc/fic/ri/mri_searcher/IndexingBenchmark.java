@@ -0,0 +1,59 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the document of a record and adding it to an in-memory index, as
+ * IndexNPL.indexDoc does. The writer is recreated every iteration, so the
+ * flushes and merges of a growing index are part of the measure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexingBenchmark {
+
+    private BenchmarkCollection collection;
+    private List<NPLParser.Record> documents;
+    private IndexWriter writer;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        collection = BenchmarkCollection.generate();
+        documents = collection.documents();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        collection.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(new StandardAnalyzer()));
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+    }
+
+    @Benchmark
+    public boolean addDocument() throws IOException {
+        NPLParser.Record record = documents.get(next);
+        next = (next + 1) % documents.size();
+        return IndexNPL.indexDoc(writer, record.id(), record.text(), null);
+    }
+}
@@ -0,0 +1,60 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the records of the collection and parsing the topics into queries.
+ * Every operation goes through the whole file or the whole set of topics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private BenchmarkCollection collection;
+    private List<String> topics;
+    private QueryParser parser;
+
+    @Setup
+    public void setup() throws IOException {
+        collection = BenchmarkCollection.generate();
+        topics = new ArrayList<>(NPLTopics.readQueries(collection.queriesFile.toString()).values());
+        parser = new QueryParser("Contents", new StandardAnalyzer());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        collection.delete();
+    }
+
+    @Benchmark
+    public int parseRecords(Blackhole blackhole) throws IOException {
+        int records = 0;
+        try (NPLParser nplParser = new NPLParser(collection.docsFile)) {
+            for (NPLParser.Record record = nplParser.next(); record != null; record = nplParser.next()) {
+                blackhole.consume(record);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    @Benchmark
+    public void parseTopics(Blackhole blackhole) throws ParseException {
+        for (String topic : topics) {
+            blackhole.consume(parser.parse(topic));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searching every topic of the collection under each similarity, with the
+ * TopDocs of IndexSearcher.search and with EvalCollector, and computing the
+ * metrics of the rankings already collected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private final static int CUT = 100;
+    private final static String[] METRICS = {"P", "R", "MAP", "NDCG", "RR"};
+
+    @Param({"jm", "dir", "tfidf"})
+    public String similarity;
+
+    private BenchmarkCollection collection;
+    private Directory index;
+    private DirectoryReader reader;
+    private IndexSearcher isearcher;
+    private List<Query> queries;
+    private List<Bits> relevantDocs;
+    private List<Integer> totalRelevants;
+    private List<EvalCollector> rankings;
+
+    @Setup
+    public void setup() throws IOException, ParseException {
+        collection = BenchmarkCollection.generate();
+        index = collection.index();
+        reader = DirectoryReader.open(index);
+        isearcher = new IndexSearcher(reader);
+        switch (similarity) {
+            case "jm":
+                isearcher.setSimilarity(new LMJelinekMercerSimilarity(0.5f));
+                break;
+            case "dir":
+                isearcher.setSimilarity(new LMDirichletSimilarity(500));
+                break;
+            case "tfidf":
+                isearcher.setSimilarity(new ClassicSimilarity());
+                break;
+        }
+
+        int[] nplIds = NPLIds.load(reader);
+        int[] docIds = NPLIds.docIds(nplIds);
+        QueryParser parser = new QueryParser("Contents", new StandardAnalyzer());
+        Map<Integer,IntHashSet> assessments = NPLTopics.readAssessments(collection.assessmentsFile.toString());
+
+        queries = new ArrayList<>();
+        relevantDocs = new ArrayList<>();
+        totalRelevants = new ArrayList<>();
+        rankings = new ArrayList<>();
+        for (Map.Entry<Integer,String> topic : NPLTopics.readQueries(collection.queriesFile.toString()).entrySet()) {
+            IntHashSet relevantIds = assessments.get(topic.getKey());
+            Query query = parser.parse(topic.getValue());
+            Bits relevant = EvalCollector.relevantDocs(relevantIds, docIds, nplIds.length);
+            queries.add(query);
+            relevantDocs.add(relevant);
+            totalRelevants.add(relevantIds.size());
+            rankings.add(EvalCollector.search(isearcher, query, CUT, relevant, relevantIds.size()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        index.close();
+        collection.delete();
+    }
+
+    @Benchmark
+    public void searchTopDocs(Blackhole blackhole) throws IOException {
+        for (Query query : queries) {
+            blackhole.consume(isearcher.search(query, CUT));
+        }
+    }
+
+    @Benchmark
+    public void searchEvalCollector(Blackhole blackhole) throws IOException {
+        for (int i = 0; i < queries.size(); i++) {
+            blackhole.consume(EvalCollector.search(isearcher, queries.get(i), CUT, relevantDocs.get(i),
+                    totalRelevants.get(i)));
+        }
+    }
+
+    @Benchmark
+    public float metrics() {
+        float accum = 0;
+        for (EvalCollector ranking : rankings) {
+            for (String metric : METRICS) {
+                accum += ranking.value(metric, CUT);
+            }
+        }
+        return accum;
+    }
+}
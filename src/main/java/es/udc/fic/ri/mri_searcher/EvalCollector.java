@@ -0,0 +1,348 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Collects the top hits of a query in primitive arrays and evaluates them
+ * against the relevant documents, given as the Bits of their docIDs, without
+ * creating an object per hit. The ranking is the same as the one of
+ * IndexSearcher.search(query, n): higher scores first and, on ties, lower
+ * docIDs first.
+ */
+public class EvalCollector extends SimpleCollector {
+
+    private final float[] scores;
+    private final int[] docs;
+    private final Bits relevant;
+    private final int totalRelevant;
+
+    /* While collecting the hits are a heap with the least competitive one at the root */
+    private int count = 0;
+
+    private int docBase;
+    private Scorable scorer;
+
+    /** Keeps the top size hits, at least 1 */
+    public EvalCollector(int size, Bits relevant, int totalRelevant) {
+        this(new float[checkSize(size)], new int[size], relevant, totalRelevant);
+    }
+
+    /* The heap compares every hit with its root, so it cannot be empty */
+    private static int checkSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be greater than 0: " + size);
+        }
+        return size;
+    }
+
+    private EvalCollector(float[] scores, int[] docs, Bits relevant, int totalRelevant) {
+        this.scores = scores;
+        this.docs = docs;
+        this.relevant = relevant;
+        this.totalRelevant = totalRelevant;
+    }
+
+    /**
+     * Wraps a ranking that is already sorted, like one read from a run file,
+     * to evaluate it. The docs are checked against the relevant Bits as they are.
+     */
+    public static EvalCollector ranked(int[] docs, float[] scores, Bits relevant, int totalRelevant) {
+        EvalCollector collector = new EvalCollector(scores, docs, relevant, totalRelevant);
+        collector.count = docs.length;
+        return collector;
+    }
+
+    /**
+     * Ranks the first count hits given, scored without a search like the ones
+     * of LMSweep, keeping the top size of them as search does.
+     */
+    public static EvalCollector top(int[] docs, float[] scores, int count, int size, Bits relevant,
+                                    int totalRelevant) {
+        EvalCollector collector = new EvalCollector(size, relevant, totalRelevant);
+        for (int n = 0; n < count; n++) {
+            collector.insert(scores[n], docs[n]);
+        }
+        collector.rank();
+        return collector;
+    }
+
+    /**
+     * Searches the query and returns the collector with its top hits already
+     * ranked. Every slice of the searcher is collected concurrently when it
+     * has an executor.
+     */
+    public static EvalCollector search(IndexSearcher isearcher, Query query, int size, Bits relevant,
+                                       int totalRelevant) throws IOException {
+        return isearcher.search(query, new CollectorManager<EvalCollector,EvalCollector>() {
+            @Override
+            public EvalCollector newCollector() {
+                return new EvalCollector(size, relevant, totalRelevant);
+            }
+
+            @Override
+            public EvalCollector reduce(Collection<EvalCollector> collectors) {
+                EvalCollector merged;
+                if (collectors.size() == 1) {
+                    merged = collectors.iterator().next();
+                } else {
+                    merged = new EvalCollector(size, relevant, totalRelevant);
+                    for (EvalCollector collector : collectors) {
+                        for (int n = 0; n < collector.count; n++) {
+                            merged.insert(collector.scores[n], collector.docs[n]);
+                        }
+                    }
+                }
+                merged.rank();
+                return merged;
+            }
+        });
+    }
+
+    /**
+     * Returns the docIDs of the relevant documents given by their DocIDNPL. A
+     * query has a handful of them, so they are kept in a sorted array instead
+     * of a bitset over the whole index.
+     */
+    public static Bits relevantDocs(IntHashSet relevantIds, int[] docIds, int maxDoc) {
+        int[] docs = new int[relevantIds.size()];
+        int count = 0;
+        for (int id : relevantIds.toArray()) {
+            if (id >= 0 && id < docIds.length && docIds[id] != -1) {
+                docs[count++] = docIds[id];
+            }
+        }
+        return sortedDocs(Arrays.copyOf(docs, count), maxDoc);
+    }
+
+    /** Returns the Bits of the given docIDs, which are sorted in place and looked up by binary search */
+    public static Bits sortedDocs(int[] docs, int maxDoc) {
+        Arrays.sort(docs);
+        return new Bits() {
+            @Override
+            public boolean get(int index) {
+                return Arrays.binarySearch(docs, index) >= 0;
+            }
+
+            @Override
+            public int length() {
+                return maxDoc;
+            }
+        };
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.TOP_SCORES;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+        docBase = context.docBase;
+    }
+
+    @Override
+    public void setScorer(Scorable scorer) throws IOException {
+        this.scorer = scorer;
+        if (count == docs.length) {
+            scorer.setMinCompetitiveScore(Math.nextUp(scores[0]));
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        float score = scorer.score();
+        if (count == docs.length) {
+            /* The docs arrive in increasing order, so a tie never enters */
+            if (score <= scores[0]) {
+                return;
+            }
+            scores[0] = score;
+            docs[0] = docBase + doc;
+            siftDown(0, count);
+            scorer.setMinCompetitiveScore(Math.nextUp(scores[0]));
+        } else {
+            insert(score, docBase + doc);
+            if (count == docs.length) {
+                scorer.setMinCompetitiveScore(Math.nextUp(scores[0]));
+            }
+        }
+    }
+
+    /** Number of hits collected, at most the size of the collector */
+    public int hits() {
+        return count;
+    }
+
+    /** DocID of the hit at the given rank, starting at 0 */
+    public int doc(int rank) {
+        return docs[rank];
+    }
+
+    public float score(int rank) {
+        return scores[rank];
+    }
+
+    public boolean isRelevant(int rank) {
+        return relevant.get(docs[rank]);
+    }
+
+    /** Rank of the first relevant hit, or -1 if there is none */
+    public int firstRelevant() {
+        for (int n = 0; n < count; n++) {
+            if (relevant.get(docs[n])) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    public int relevantRetrieved(int cut) {
+        int relevantsRetrieved = 0;
+        for (int n = 0; n < Math.min(count, cut); n++) {
+            if (relevant.get(docs[n])) {
+                relevantsRetrieved++;
+            }
+        }
+        return relevantsRetrieved;
+    }
+
+    public float precision(int cut) {
+        return (float) relevantRetrieved(cut) / cut;
+    }
+
+    public float recall(int cut) {
+        return (float) relevantRetrieved(cut) / totalRelevant;
+    }
+
+    public float averagePrecision(int cut) {
+        int relevantsRetrieved = 0;
+        float ap = 0;
+        for (int n = 0; n < Math.min(count, cut); n++) {
+            if (relevant.get(docs[n])) {
+                relevantsRetrieved++;
+                ap += (float) relevantsRetrieved / (n+1);
+            }
+        }
+        return ap / totalRelevant;
+    }
+
+    /** Normalized DCG with binary relevance: the ideal ranking has every relevant document first */
+    public float ndcg(int cut) {
+        double dcg = 0;
+        for (int n = 0; n < Math.min(count, cut); n++) {
+            if (relevant.get(docs[n])) {
+                dcg += 1 / log2(n + 2);
+            }
+        }
+
+        double idcg = 0;
+        for (int n = 0; n < Math.min(totalRelevant, cut); n++) {
+            idcg += 1 / log2(n + 2);
+        }
+        return (float) (dcg / idcg);
+    }
+
+    public float reciprocalRank(int cut) {
+        for (int n = 0; n < Math.min(count, cut); n++) {
+            if (relevant.get(docs[n])) {
+                return 1f / (n+1);
+            }
+        }
+        return 0;
+    }
+
+    /** Value of the metric P, R, MAP, NDCG or RR at the given cut */
+    public float value(String metrica, int cut) {
+        switch (metrica) {
+            case "P":
+                return precision(cut);
+            case "R":
+                return recall(cut);
+            case "MAP":
+                return averagePrecision(cut);
+            case "NDCG":
+                return ndcg(cut);
+            case "RR":
+                return reciprocalRank(cut);
+            default:
+                throw new IllegalArgumentException("Unknown metrica: " + metrica);
+        }
+    }
+
+    private static double log2(int value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    /* Least competitive first: lower score or, on ties, higher docID */
+    private boolean lessThan(int a, int b) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+    }
+
+    private void insert(float score, int doc) {
+        if (count < docs.length) {
+            scores[count] = score;
+            docs[count] = doc;
+            siftUp(count++);
+        } else if (score > scores[0] || (score == scores[0] && doc < docs[0])) {
+            scores[0] = score;
+            docs[0] = doc;
+            siftDown(0, count);
+        }
+    }
+
+    /* Sorts the heap in place, so the best hit ends at rank 0 */
+    private void rank() {
+        for (int last = count - 1; last > 0; last--) {
+            swap(0, last);
+            siftDown(0, last);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!lessThan(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && lessThan(child + 1, child)) {
+                child++;
+            }
+            if (!lessThan(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        int doc = docs[a];
+        docs[a] = docs[b];
+        docs[b] = doc;
+    }
+}
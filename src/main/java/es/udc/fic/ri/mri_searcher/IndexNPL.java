@@ -1,12 +1,14 @@
 package es.udc.fic.ri.mri_searcher;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.*;
 import org.apache.lucene.search.similarities.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,6 +16,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class IndexNPL {
@@ -21,14 +25,64 @@ public class IndexNPL {
     private final static String CONFIG_FILE = "config.properties";
     private static Map<String,String> properties;
 
+    private final static int QUEUE_CAPACITY = 1024;
+    private final static NPLDoc END_OF_DOCS = new NPLDoc(null, null, 0);
+    private final static int DEFAULT_PROGRESS_SECONDS = 10;
+
+    private final static long NO_HASH = 0;
+
+    private static boolean debug = false;
+    private static FieldType contentsType = TextField.TYPE_STORED;
+
+    /* Record of the collection waiting in the queue to be indexed */
+    private static class NPLDoc {
+        private final String id;
+        private final String content;
+        private final int length;
+
+        private NPLDoc(String id, String content, int length) {
+            this.id = id;
+            this.content = content;
+            this.length = length;
+        }
+    }
+
+    /* Index written by its own IndexWriter, fed through its own queue */
+    private static class Shard {
+        private final Directory dir;
+        private final IndexWriter writer;
+        private final ConcurrentMap<String,Long> previousHashes;
+        private final BlockingQueue<NPLDoc> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        private Shard(Directory dir, IndexWriter writer, ConcurrentMap<String,Long> previousHashes) {
+            this.dir = dir;
+            this.writer = writer;
+            this.previousHashes = previousHashes;
+        }
+    }
+
     public static void main(String[] args) {
         String usage = "java es.udc.fic.ri.mri_searcher.IndexNPL"
-                + " [-index INDEX_PATH] [-openmode create | append | create_or_append]";
+                + " [-index INDEX_PATH] [-openmode create | append | create_or_append | incremental]"
+                + " [-deletemissing]"
+                + " [-threads N] [-rambuffer MB] [-maxbuffereddocs N] [-shards N] [-merge MERGED_INDEX_PATH]"
+                + " [-profile NAME] [-progress SECONDS] [-metrics METRICS_FILE [-analyzertime]] [-debug]";
 
         String indexPath = null;
         IndexWriterConfig.OpenMode openMode = null;
         String docPath = null;
         String[] similarityParams = null;
+        int threads = 1;
+        int shards = 1;
+        String mergePath = null;
+        String profileName = null;
+        double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+        int maxBufferedDocs = IndexWriterConfig.DISABLE_AUTO_FLUSH;
+        int progressSeconds = DEFAULT_PROGRESS_SECONDS;
+        String metricsPath = null;
+        boolean analyzerTime = false;
+        boolean incremental = false;
+        boolean deleteMissing = false;
 
         /* Check arguments */
         for (int i = 0; i < args.length; i++) {
@@ -46,7 +100,33 @@ public class IndexNPL {
                     case "create_or_append":
                         openMode = IndexWriterConfig.OpenMode.CREATE_OR_APPEND;
                         break;
+                    case "incremental":
+                        openMode = IndexWriterConfig.OpenMode.CREATE_OR_APPEND;
+                        incremental = true;
+                        break;
                 }
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-shards".equals(args[i])) {
+                shards = Integer.parseInt(args[++i]);
+            } else if ("-merge".equals(args[i])) {
+                mergePath = args[++i];
+            } else if ("-profile".equals(args[i])) {
+                profileName = args[++i];
+            } else if ("-rambuffer".equals(args[i])) {
+                ramBufferMB = Double.parseDouble(args[++i]);
+            } else if ("-maxbuffereddocs".equals(args[i])) {
+                maxBufferedDocs = Integer.parseInt(args[++i]);
+            } else if ("-progress".equals(args[i])) {
+                progressSeconds = Integer.parseInt(args[++i]);
+            } else if ("-metrics".equals(args[i])) {
+                metricsPath = args[++i];
+            } else if ("-analyzertime".equals(args[i])) {
+                analyzerTime = true;
+            } else if ("-deletemissing".equals(args[i])) {
+                deleteMissing = true;
+            } else if ("-debug".equals(args[i])) {
+                debug = true;
             }
         }
 
@@ -55,6 +135,46 @@ public class IndexNPL {
             System.exit(-1);
         }
 
+        if (deleteMissing && !incremental) {
+            System.err.println("-deletemissing can only be used with -openmode incremental");
+            System.exit(-1);
+        }
+
+        if (threads <= 0) {
+            System.err.println("N must be greater than 0: " + threads);
+            System.exit(-1);
+        }
+
+        if (shards <= 0) {
+            System.err.println("N must be greater than 0: " + shards);
+            System.exit(-1);
+        }
+
+        if (mergePath != null && shards == 1) {
+            System.err.println("-merge can only be used with more than one shard");
+            System.exit(-1);
+        }
+
+        if (ramBufferMB <= 0) {
+            System.err.println("MB must be greater than 0: " + ramBufferMB);
+            System.exit(-1);
+        }
+
+        if (maxBufferedDocs != IndexWriterConfig.DISABLE_AUTO_FLUSH && maxBufferedDocs < 2) {
+            System.err.println("max buffered docs must be at least 2: " + maxBufferedDocs);
+            System.exit(-1);
+        }
+
+        if (analyzerTime && metricsPath == null) {
+            System.err.println("-analyzertime requires -metrics");
+            System.exit(-1);
+        }
+
+        if (progressSeconds < 0) {
+            System.err.println("SECONDS must be greater or equal than 0: " + progressSeconds);
+            System.exit(-1);
+        }
+
         /* Check config.properties parameters */
         docPath = getProperty("docs");
         if (docPath == null || docPath.equals("")) {
@@ -73,39 +193,116 @@ public class IndexNPL {
             System.exit(-1);
         }
 
+        IndexProfile profile = IndexProfile.defaultProfile();
+        if (profileName != null) {
+            try {
+                profile = IndexProfile.fromProperties(profileName, IndexNPL::getProperty);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid profile " + profileName + ": " + e.getMessage());
+                System.exit(-1);
+            }
+        }
+        contentsType = profile.contentsType();
+
         /* Indexing */
-        Date start = new Date();
+        IndexingMetrics metrics = new IndexingMetrics(analyzerTime);
 
         try {
             System.out.println("Indexing to directory '" + indexPath + "'...");
 
-            /* Create IndexWriter */
-            Directory dir = FSDirectory.open(Paths.get(indexPath));
-            IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer()).setOpenMode(openMode);
-
-            switch (similarityParams[0]) {
-                case "jm":
-                    iwc.setSimilarity(new LMJelinekMercerSimilarity(Float.parseFloat(similarityParams[1])));
-                    break;
-                case "dir":
-                    iwc.setSimilarity(new LMDirichletSimilarity(Float.parseFloat(similarityParams[1])));
-                    break;
-                case "tfidf":
-                    iwc.setSimilarity(new ClassicSimilarity()); // Implementation of TFIDF
-                    break;
+            /* The sort of an existing index cannot be changed, it has to be recreated */
+            if (openMode != IndexWriterConfig.OpenMode.CREATE) {
+                for (int s = 0; s < shards; s++) {
+                    Path shardPath = shards == 1 ? Paths.get(indexPath) : Paths.get(indexPath, "shard" + s);
+                    try (Directory dir = FSDirectory.open(shardPath)) {
+                        profile.checkSort(dir);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Profile " + profile.name() + " cannot be applied to the index '"
+                                + shardPath + "': " + e.getMessage()
+                                + ". The index must be recreated with -openmode create");
+                        System.exit(-1);
+                    }
+                }
             }
 
-            IndexWriter writer = new IndexWriter(dir, iwc);
+            /* Create an IndexWriter for every shard */
+            Analyzer analyzer = metrics.analyzer(new StandardAnalyzer());
+            Similarity similarity = createSimilarity(similarityParams);
+            Shard[] indexShards = new Shard[shards];
+            for (int s = 0; s < shards; s++) {
+                Path shardPath = shards == 1 ? Paths.get(indexPath) : Paths.get(indexPath, "shard" + s);
+                Directory dir = FSDirectory.open(shardPath);
+                IndexWriterConfig iwc = new IndexWriterConfig(analyzer).setOpenMode(openMode)
+                        .setSimilarity(similarity)
+                        .setRAMBufferSizeMB(ramBufferMB)
+                        .setMaxBufferedDocs(maxBufferedDocs)
+                        .setInfoStream(metrics.infoStream())
+                        .setMergeScheduler(metrics.mergeScheduler());
+                profile.configure(iwc);
+
+                IndexWriter writer = new IndexWriter(dir, iwc);
+                indexShards[s] = new Shard(dir, writer, incremental ? readHashes(writer) : null);
+            }
 
             /* Extract each doc from the file and add to the index */
-            indexDocs(writer, Paths.get(docPath));
+            if (progressSeconds > 0) {
+                metrics.startProgress(progressSeconds);
+            }
+            Exception failure = indexDocs(indexShards, Paths.get(docPath), threads, metrics);
+            if (failure != null) {
+                /* Nothing of this run is committed nor deleted, the index is left as it was */
+                metrics.stopProgress();
+                for (Shard shard : indexShards) {
+                    shard.writer.rollback();
+                    shard.dir.close();
+                }
+                System.err.println("Indexing failed, the index was not modified: " + failure);
+                failure.printStackTrace();
+                System.exit(-1);
+            }
 
-            /* Close resources */
-            writer.close();
-            dir.close();
+            for (Shard shard : indexShards) {
+                /* The documents not seen in the collection are the ones left */
+                if (deleteMissing && !shard.previousHashes.isEmpty()) {
+                    List<Term> missing = new ArrayList<>();
+                    for (String id : shard.previousHashes.keySet()) {
+                        missing.add(new Term("DocIDNPL", id));
+                    }
+                    shard.writer.deleteDocuments(missing.toArray(new Term[0]));
+                    metrics.docsDeleted(missing.size());
+                }
+
+                if (profile.forceMergeSegments() > 0) {
+                    shard.writer.forceMerge(profile.forceMergeSegments());
+                }
 
-            Date end = new Date();
-            System.out.println(end.getTime() - start.getTime() + " total milliseconds");
+                /* Close resources */
+                shard.writer.close();
+            }
+            metrics.stopProgress();
+
+            System.out.println(metrics.progressLine());
+            if (incremental) {
+                System.out.println(metrics.changesLine());
+            }
+
+            long indexSize = 0;
+            for (Shard shard : indexShards) {
+                indexSize += sizeOf(shard.dir);
+            }
+            System.out.printf("Index size with profile %s: %.2f MB%n", profile.name(), indexSize / (1024.0 * 1024.0));
+
+            if (mergePath != null) {
+                mergeShards(indexShards, Paths.get(mergePath), similarity, profile);
+            }
+            for (Shard shard : indexShards) {
+                shard.dir.close();
+            }
+
+            System.out.println(metrics.elapsedMillis() + " total milliseconds");
+            if (metricsPath != null) {
+                metrics.writeSummary(Paths.get(metricsPath), shards, threads);
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -113,41 +310,209 @@ public class IndexNPL {
 
     }
 
-    private static void indexDocs(IndexWriter writer, Path file) {
-
-        try (Scanner scanner = new Scanner(file.toFile())) {
-            String id = "";
-            String content = "";
-            boolean nextDoc = true;
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
-
-                if (line.equals("/")) {
-                    indexDoc(writer, id, content);
-                    nextDoc = true;
-                    content = "";
-                } else if (nextDoc) {
-                    id = line;
-                    nextDoc = false;
-                } else {
-                    content = content.equals("") ? line : content + " " + line;
-                }
+    static Similarity createSimilarity(String[] similarityParams) {
+        switch (similarityParams[0]) {
+            case "jm":
+                return new LMJelinekMercerSimilarity(Float.parseFloat(similarityParams[1]));
+            case "dir":
+                return new LMDirichletSimilarity(Float.parseFloat(similarityParams[1]));
+            default:
+                return new ClassicSimilarity(); // Implementation of TFIDF
+        }
+    }
+
+    /* Combines the closed shards into a single new index */
+    private static void mergeShards(Shard[] shards, Path mergePath, Similarity similarity,
+                                    IndexProfile profile) throws IOException {
+        System.out.println("Merging " + shards.length + " shards into directory '" + mergePath + "'...");
+
+        Directory[] shardDirs = new Directory[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            shardDirs[s] = shards[s].dir;
+        }
+
+        try (Directory dir = FSDirectory.open(mergePath);
+             IndexWriter writer = new IndexWriter(dir, profile.configure(new IndexWriterConfig(new StandardAnalyzer())
+                     .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+                     .setSimilarity(similarity)))) {
+            writer.addIndexes(shardDirs);
+            if (profile.forceMergeSegments() > 0) {
+                writer.forceMerge(profile.forceMergeSegments());
+            }
+            writer.commit();
+            System.out.printf("Merged index size with profile %s: %.2f MB%n", profile.name(),
+                    sizeOf(dir) / (1024.0 * 1024.0));
+        }
+    }
+
+    /* Size on disk of the files in the directory */
+    private static long sizeOf(Directory dir) throws IOException {
+        long size = 0;
+        for (String file : dir.listAll()) {
+            size += dir.fileLength(file);
+        }
+        return size;
+    }
+
+    /**
+     * Parses the collection in the calling thread and hands every record to the
+     * queue of its shard, chosen by the hash of its DocIDNPL. Every shard has a
+     * pool of workers that analyze and add the documents concurrently, since
+     * IndexWriter is thread-safe. Returns the first failure, of the parser or
+     * of a worker, which stops the parsing, or null if every document was added.
+     * After a failure the collection was not read completely, so the documents
+     * not seen must not be taken as deleted.
+     */
+    private static Exception indexDocs(Shard[] shards, Path file, int threads, IndexingMetrics metrics) {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(shards.length * threads);
+
+        for (Shard shard : shards) {
+            for (int i = 0; i < threads; i++) {
+                workers.execute(() -> {
+                    try {
+                        NPLDoc doc;
+                        while ((doc = shard.queue.take()) != END_OF_DOCS) {
+                            // Keep draining after a failure so the parser never blocks
+                            if (failure.get() == null) {
+                                try {
+                                    if (indexDoc(shard.writer, doc.id, doc.content, shard.previousHashes)) {
+                                        metrics.docIndexed(doc.length);
+                                    } else {
+                                        metrics.docUnchanged();
+                                    }
+                                } catch (Exception e) {
+                                    /* Any failure, a non-numeric DocIDNPL too, must not kill the worker */
+                                    failure.compareAndSet(null, e);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+
+        try (NPLParser parser = new NPLParser(file)) {
+            NPLParser.Record record;
+            while (failure.get() == null && (record = parser.next()) != null) {
+                Shard shard = shards[Math.floorMod(record.id().hashCode(), shards.length)];
+                shard.queue.put(new NPLDoc(record.id(), record.text(), record.length()));
             }
 
         } catch (IOException e) {
-            e.printStackTrace();
+            failure.compareAndSet(null, e);
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                for (Shard shard : shards) {
+                    for (int i = 0; i < threads; i++) {
+                        shard.queue.put(END_OF_DOCS);
+                    }
+                }
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
         }
 
+        return failure.get();
     }
 
-    private static void indexDoc(IndexWriter writer, String id, String content) throws IOException {
-        System.out.println("adding doc with id " + id);
+    /**
+     * Adds the document to the index. In incremental mode the document replaces
+     * the one with the same DocIDNPL, and it is skipped without being analyzed
+     * if the content hash did not change. Returns whether it was indexed.
+     */
+    static boolean indexDoc(IndexWriter writer, String id, String content,
+                            ConcurrentMap<String,Long> previousHashes) throws IOException {
+        long hash = contentHash(content);
+        if (previousHashes != null) {
+            Long previousHash = previousHashes.remove(id);
+            if (previousHash != null && previousHash == hash) {
+                return false;
+            }
+        }
+
+        Document document = document(id, content, hash);
+        if (previousHashes != null) {
+            writer.updateDocument(new Term("DocIDNPL", id), document);
+        } else {
+            writer.addDocument(document);
+        }
+        return true;
+    }
+
+    /** Adds the document to the index, replacing the one with the same DocIDNPL */
+    static void updateDoc(IndexWriter writer, String id, String content) throws IOException {
+        writer.updateDocument(new Term("DocIDNPL", id), document(id, content, contentHash(content)));
+    }
+
+    private static Document document(String id, String content, long hash) {
+        if (debug) {
+            System.out.println("adding doc with id " + id);
+        }
 
         Document document = new Document();
         document.add(new StringField("DocIDNPL", id, Field.Store.YES));
-        document.add(new TextField("Contents", content, Field.Store.YES));
-        writer.addDocument(document);
+        document.add(new NumericDocValuesField("DocIDNPL", Integer.parseInt(id)));
+        document.add(new Field("Contents", content, contentsType));
+        document.add(new NumericDocValuesField("ContentHash", hash));
+        return document;
+    }
+
+    /* 64-bit FNV-1a hash of the content, never equal to NO_HASH */
+    private static long contentHash(String content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            hash ^= content.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == NO_HASH ? 1 : hash;
+    }
+
+    /* Content hash of every live document in the index, keyed by its DocIDNPL */
+    private static ConcurrentMap<String,Long> readHashes(IndexWriter writer) throws IOException {
+        ConcurrentMap<String,Long> hashes = new ConcurrentHashMap<>();
+
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            for (LeafReaderContext context : reader.leaves()) {
+                LeafReader leaf = context.reader();
+                Terms terms = leaf.terms("DocIDNPL");
+                if (terms == null) {
+                    continue;
+                }
+
+                /* Documents indexed without a hash are always updated */
+                long[] leafHashes = new long[leaf.maxDoc()];
+                NumericDocValues values = leaf.getNumericDocValues("ContentHash");
+                if (values != null) {
+                    for (int doc = values.nextDoc(); doc != NumericDocValues.NO_MORE_DOCS; doc = values.nextDoc()) {
+                        leafHashes[doc] = values.longValue();
+                    }
+                }
+
+                Bits liveDocs = leaf.getLiveDocs();
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        if (liveDocs == null || liveDocs.get(doc)) {
+                            hashes.put(term.utf8ToString(), leafHashes[doc]);
+                        }
+                    }
+                }
+            }
+        }
+
+        return hashes;
     }
 
     private static String getProperty(String name) {
@@ -0,0 +1,218 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene80.Lucene80Codec;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Layout of the index written by IndexNPL, read from the config.properties
+ * variables profile.NAME.KEY. The keys are:
+ *
+ * - postings: docs | freqs | positions | offsets, what is indexed for Contents
+ * - storedfields: best_speed | best_compression, compression of the stored fields
+ * - compound: true | false, whether the segments are packed in compound files
+ * - mergepolicy: tiered | logbytesize | logdoc | none
+ * - sort: none | DocIDNPL, order of the documents inside the segments
+ * - forcemerge: maximum number of segments after indexing, 0 to not merge
+ *
+ * A missing key keeps the default of Lucene, which is also the whole default
+ * profile used without -profile.
+ */
+public class IndexProfile {
+
+    private final String name;
+    private final FieldType contentsType;
+    private final Lucene50StoredFieldsFormat.Mode storedFieldsMode;
+    private final Boolean compound;
+    private final String mergePolicy;
+    private final String sort;
+    private final int forceMergeSegments;
+
+    private IndexProfile(String name, FieldType contentsType, Lucene50StoredFieldsFormat.Mode storedFieldsMode,
+                         Boolean compound, String mergePolicy, String sort, int forceMergeSegments) {
+        this.name = name;
+        this.contentsType = contentsType;
+        this.storedFieldsMode = storedFieldsMode;
+        this.compound = compound;
+        this.mergePolicy = mergePolicy;
+        this.sort = sort;
+        this.forceMergeSegments = forceMergeSegments;
+    }
+
+    public static IndexProfile defaultProfile() {
+        return new IndexProfile("default", TextField.TYPE_STORED, null, null, null, null, 0);
+    }
+
+    /**
+     * Reads the profile with the given name through the properties lookup.
+     * Throws IllegalArgumentException if a value is not valid.
+     */
+    public static IndexProfile fromProperties(String name, Function<String,String> properties) {
+        String prefix = "profile." + name + ".";
+
+        FieldType contentsType = TextField.TYPE_STORED;
+        String postings = property(properties, prefix + "postings");
+        if (postings != null) {
+            contentsType = new FieldType(TextField.TYPE_STORED);
+            switch (postings) {
+                case "docs":
+                    contentsType.setIndexOptions(IndexOptions.DOCS);
+                    break;
+                case "freqs":
+                    contentsType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+                    break;
+                case "positions":
+                    contentsType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+                    break;
+                case "offsets":
+                    contentsType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown postings: " + postings);
+            }
+            contentsType.freeze();
+        }
+
+        Lucene50StoredFieldsFormat.Mode storedFieldsMode = null;
+        String storedFields = property(properties, prefix + "storedfields");
+        if (storedFields != null) {
+            switch (storedFields) {
+                case "best_speed":
+                    storedFieldsMode = Lucene50StoredFieldsFormat.Mode.BEST_SPEED;
+                    break;
+                case "best_compression":
+                    storedFieldsMode = Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown storedfields: " + storedFields);
+            }
+        }
+
+        Boolean compound = null;
+        String compoundValue = property(properties, prefix + "compound");
+        if (compoundValue != null) {
+            if (!(compoundValue.equals("true") || compoundValue.equals("false"))) {
+                throw new IllegalArgumentException("compound must be true or false: " + compoundValue);
+            }
+            compound = Boolean.valueOf(compoundValue);
+        }
+
+        String mergePolicy = property(properties, prefix + "mergepolicy");
+        if (mergePolicy != null && !(mergePolicy.equals("tiered") || mergePolicy.equals("logbytesize")
+                || mergePolicy.equals("logdoc") || mergePolicy.equals("none"))) {
+            throw new IllegalArgumentException("Unknown mergepolicy: " + mergePolicy);
+        }
+
+        String sort = property(properties, prefix + "sort");
+        if (sort != null && !(sort.equals("none") || sort.equals("DocIDNPL"))) {
+            throw new IllegalArgumentException("Unknown sort: " + sort);
+        }
+
+        int forceMergeSegments = 0;
+        String forceMerge = property(properties, prefix + "forcemerge");
+        if (forceMerge != null) {
+            forceMergeSegments = Integer.parseInt(forceMerge);
+            if (forceMergeSegments < 0) {
+                throw new IllegalArgumentException("forcemerge must be greater or equal than 0: " + forceMerge);
+            }
+        }
+
+        if (postings == null && storedFields == null && compound == null && mergePolicy == null && sort == null
+                && forceMerge == null) {
+            throw new IllegalArgumentException("no " + prefix + "* variables found");
+        }
+
+        return new IndexProfile(name, contentsType, storedFieldsMode, compound, mergePolicy, sort,
+                forceMergeSegments);
+    }
+
+    private static String property(Function<String,String> properties, String key) {
+        String value = properties.apply(key);
+        return value == null || value.trim().equals("") ? null : value.trim();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Type of the Contents field: stored, tokenized and with the postings of the profile */
+    public FieldType contentsType() {
+        return contentsType;
+    }
+
+    /** Maximum number of segments once the documents are added, or 0 to not force a merge */
+    public int forceMergeSegments() {
+        return forceMergeSegments;
+    }
+
+    /** Applies the codec, segment layout and index sort of the profile */
+    public IndexWriterConfig configure(IndexWriterConfig iwc) {
+        if (storedFieldsMode != null) {
+            iwc.setCodec(new Lucene80Codec(storedFieldsMode));
+        }
+
+        if (mergePolicy != null) {
+            switch (mergePolicy) {
+                case "tiered":
+                    iwc.setMergePolicy(new TieredMergePolicy());
+                    break;
+                case "logbytesize":
+                    iwc.setMergePolicy(new LogByteSizeMergePolicy());
+                    break;
+                case "logdoc":
+                    iwc.setMergePolicy(new LogDocMergePolicy());
+                    break;
+                case "none":
+                    iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+                    break;
+            }
+        }
+
+        if (compound != null) {
+            iwc.setUseCompoundFile(compound);
+            /* Merged segments follow the same layout as the flushed ones */
+            if (iwc.getMergePolicy() != NoMergePolicy.INSTANCE) {
+                iwc.getMergePolicy().setNoCFSRatio(compound ? 1.0 : 0.0);
+            }
+        }
+
+        if ("DocIDNPL".equals(sort)) {
+            iwc.setIndexSort(indexSort());
+        }
+
+        return iwc;
+    }
+
+    /**
+     * Checks that the sort of the profile, if it has one, is the one of the
+     * segments already in the index, since IndexWriter cannot change it. Throws
+     * IllegalArgumentException if it is not.
+     */
+    public void checkSort(Directory dir) throws IOException {
+        if (sort == null || !DirectoryReader.indexExists(dir)) {
+            return;
+        }
+
+        Sort profileSort = "DocIDNPL".equals(sort) ? indexSort() : null;
+        for (SegmentCommitInfo info : SegmentInfos.readLatestCommit(dir)) {
+            if (!Objects.equals(profileSort, info.info.getIndexSort())) {
+                throw new IllegalArgumentException("the index is sorted by "
+                        + (info.info.getIndexSort() == null ? "none" : info.info.getIndexSort())
+                        + " and the profile by " + sort);
+            }
+        }
+    }
+
+    private static Sort indexSort() {
+        return new Sort(new SortField("DocIDNPL", SortField.Type.LONG));
+    }
+}
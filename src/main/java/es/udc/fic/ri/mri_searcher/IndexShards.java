@@ -0,0 +1,219 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * One or more indexes searched as a single one. The shards are combined in a
+ * MultiReader, so the collection statistics used by the similarities are
+ * global and the scores are the same as over an unsharded index. Every shard
+ * is searched concurrently, and the top hits of every shard are merged by
+ * the reduce of EvalCollector.search.
+ */
+public class IndexShards implements Closeable {
+
+    /**
+     * How the files of the indexes are read: chosen by FSDirectory, memory
+     * mapped, memory mapped and loaded at once, or copied to the heap or to
+     * direct buffers out of it.
+     */
+    public final static List<String> DIR_MODES = Arrays.asList("fs", "mmap", "mmap-preload", "heap", "offheap");
+
+    private final List<Path> paths;
+    private final List<Directory> dirs;
+    private final List<DirectoryReader> readers;
+    private final IndexReader reader;
+    private final ExecutorService executor;
+
+    private IndexShards(List<Path> paths, List<Directory> dirs, List<DirectoryReader> readers, IndexReader reader,
+                        ExecutorService executor) {
+        this.paths = paths;
+        this.dirs = dirs;
+        this.readers = readers;
+        this.reader = reader;
+        this.executor = executor;
+    }
+
+    /**
+     * Opens the comma-separated index paths. A path without an index but with
+     * the shard0 ... shardN directories written by IndexNPL opens every shard.
+     */
+    public static IndexShards open(String indexPaths) throws IOException {
+        return open(indexPaths, "fs");
+    }
+
+    /** Opens the comma-separated index paths, reading their files as the mode of DIR_MODES says */
+    public static IndexShards open(String indexPaths, String dirMode) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (String indexPath : indexPaths.split(",")) {
+            paths.addAll(shardPaths(Paths.get(indexPath.trim())));
+        }
+
+        List<Directory> dirs = new ArrayList<>();
+        List<DirectoryReader> readers = new ArrayList<>();
+        for (Path path : paths) {
+            Directory dir = openDirectory(path, dirMode);
+            dirs.add(dir);
+            readers.add(DirectoryReader.open(dir));
+        }
+
+        if (readers.size() == 1) {
+            return new IndexShards(paths, dirs, readers, readers.get(0), null);
+        }
+        return new IndexShards(paths, dirs, readers, new MultiReader(readers.toArray(new IndexReader[0]), true),
+                Executors.newFixedThreadPool(readers.size()));
+    }
+
+    private static Directory openDirectory(Path path, String dirMode) throws IOException {
+        switch (dirMode) {
+            case "mmap":
+                return new MMapDirectory(path);
+            case "mmap-preload":
+                /* Every file is read into the page cache when the reader opens it */
+                MMapDirectory dir = new MMapDirectory(path);
+                dir.setPreload(true);
+                return dir;
+            case "heap":
+                return copy(path, new ByteBuffersDirectory());
+            case "offheap":
+                return copy(path, new ByteBuffersDirectory(new SingleInstanceLockFactory(),
+                        () -> new ByteBuffersDataOutput(ByteBuffersDataOutput.DEFAULT_MIN_BITS_PER_BLOCK,
+                                ByteBuffersDataOutput.DEFAULT_MAX_BITS_PER_BLOCK, ByteBuffer::allocateDirect,
+                                ByteBuffersDataOutput.NO_REUSE),
+                        ByteBuffersDirectory.OUTPUT_AS_MANY_BUFFERS));
+            case "fs":
+                return FSDirectory.open(path);
+            default:
+                throw new IllegalArgumentException("Unknown directory mode: " + dirMode);
+        }
+    }
+
+    private static Directory copy(Path path, Directory target) throws IOException {
+        try (Directory source = FSDirectory.open(path)) {
+            for (String file : source.listAll()) {
+                if (!file.equals(IndexWriter.WRITE_LOCK_NAME)) {
+                    target.copyFrom(source, file, file, IOContext.READONCE);
+                }
+            }
+        }
+        return target;
+    }
+
+    private static List<Path> shardPaths(Path indexPath) throws IOException {
+        List<Path> shards = new ArrayList<>();
+        try (Directory dir = FSDirectory.open(indexPath)) {
+            if (!DirectoryReader.indexExists(dir) && Files.isDirectory(indexPath)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexPath, "shard[0-9]*")) {
+                    stream.forEach(shards::add);
+                }
+            }
+        }
+
+        if (shards.isEmpty()) {
+            shards.add(indexPath);
+        } else {
+            /* Keep the order of the shard numbers, so the docIDs do not depend on the file system */
+            shards.sort((a, b) -> Integer.compare(shardNumber(a), shardNumber(b)));
+        }
+        return shards;
+    }
+
+    private static int shardNumber(Path shard) {
+        return Integer.parseInt(shard.getFileName().toString().substring("shard".length()));
+    }
+
+    public IndexReader reader() {
+        return reader;
+    }
+
+    public int size() {
+        return dirs.size();
+    }
+
+    /**
+     * Identifies the commits read: the absolute path of every index with the
+     * generation and the id of its commit. The generation starts again when an
+     * index is recreated at the same path, but the id is random for every commit.
+     */
+    public String commits() throws IOException {
+        StringBuilder commits = new StringBuilder();
+        for (int i = 0; i < readers.size(); i++) {
+            IndexCommit commit = readers.get(i).getIndexCommit();
+            SegmentInfos infos = SegmentInfos.readCommit(commit.getDirectory(), commit.getSegmentsFileName());
+            commits.append(i == 0 ? "" : ",").append(paths.get(i).toAbsolutePath().normalize())
+                    .append('@').append(commit.getGeneration()).append(':')
+                    .append(StringHelper.idToString(infos.getId()));
+        }
+        return commits.toString();
+    }
+
+    /** Returns a new searcher that searches every shard in its own thread */
+    public IndexSearcher newSearcher() {
+        return new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                /* One slice per shard: the segments of a shard share the same parent */
+                List<LeafSlice> slices = new ArrayList<>();
+                int from = 0;
+                for (int i = 1; i <= leaves.size(); i++) {
+                    if (i == leaves.size() || leaves.get(i).parent != leaves.get(from).parent) {
+                        slices.add(new LeafSlice(leaves.subList(from, i).toArray(new LeafReaderContext[0])));
+                        from = i;
+                    }
+                }
+                return slices.toArray(new LeafSlice[0]);
+            }
+        };
+    }
+
+    /**
+     * Searches the queries once and discards the hits, so the first measured
+     * queries do not pay for reading the index and compiling the search code.
+     */
+    public void warmUp(IndexSearcher isearcher, List<Query> queries, int size) throws IOException {
+        Bits noRelevant = new Bits.MatchNoBits(reader.maxDoc());
+        for (Query query : queries) {
+            EvalCollector.search(isearcher, query, size, noRelevant, 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (Directory dir : dirs) {
+            dir.close();
+        }
+    }
+}
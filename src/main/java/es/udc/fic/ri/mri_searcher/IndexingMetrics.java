@@ -0,0 +1,209 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput counters of an indexing run. The analyzer time is measured by
+ * wrapping the analyzer, only if it is asked for since it times every token,
+ * the flushes are taken from the messages of Lucene's
+ * InfoStream and the merges from the merge scheduler, so every component has
+ * to be plugged into the IndexWriterConfig.
+ */
+public class IndexingMetrics {
+
+    private final LongAdder docs = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder analyzerNanos = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushMillis = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder mergeNanos = new LongAdder();
+
+    private final boolean timeAnalyzer;
+    private final long start = System.nanoTime();
+    private ScheduledExecutorService progress;
+
+    public IndexingMetrics(boolean timeAnalyzer) {
+        this.timeAnalyzer = timeAnalyzer;
+    }
+
+    public void docIndexed(int length) {
+        docs.increment();
+        bytes.add(length);
+    }
+
+    public void docUnchanged() {
+        unchanged.increment();
+    }
+
+    public void docsDeleted(int count) {
+        deleted.add(count);
+    }
+
+    /** Wraps the analyzer to account the time spent producing tokens, if the analyzer is timed */
+    public Analyzer analyzer(Analyzer analyzer) {
+        if (!timeAnalyzer) {
+            return analyzer;
+        }
+        return new AnalyzerWrapper(analyzer.getReuseStrategy()) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getSource(), new TimingFilter(components.getTokenStream()));
+            }
+        };
+    }
+
+    /** InfoStream that only listens to the flushes of the indexing threads */
+    public InfoStream infoStream() {
+        return new InfoStream() {
+            @Override
+            public void message(String component, String message) {
+                // e.g. "flush time 12.3 msec"
+                if (message.startsWith("flush time ") && message.endsWith(" msec")) {
+                    double millis = Double.parseDouble(message.substring(11, message.length() - 5));
+                    flushes.increment();
+                    flushMillis.add(Math.round(millis));
+                }
+            }
+
+            @Override
+            public boolean isEnabled(String component) {
+                return "DWPT".equals(component);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public MergeScheduler mergeScheduler() {
+        return new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+                long mergeStart = System.nanoTime();
+                try {
+                    super.doMerge(writer, merge);
+                } finally {
+                    merges.increment();
+                    mergeNanos.add(System.nanoTime() - mergeStart);
+                }
+            }
+        };
+    }
+
+    /** Prints a progress line every given number of seconds until stopProgress is called */
+    public void startProgress(int seconds) {
+        progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "indexing-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(() -> System.out.println(progressLine()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public void stopProgress() {
+        if (progress != null) {
+            progress.shutdownNow();
+        }
+    }
+
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public String progressLine() {
+        double seconds = elapsedSeconds();
+        return String.format(Locale.ROOT, "%d docs, %.1f docs/sec, %.2f MB/sec, %d flushes, %d merges",
+                docs.sum(), docs.sum() / seconds, megabytes() / seconds, flushes.sum(), merges.sum());
+    }
+
+    public String changesLine() {
+        return String.format(Locale.ROOT, "%d docs unchanged, %d docs deleted", unchanged.sum(), deleted.sum());
+    }
+
+    /** Writes the final values as a JSON object, with a null analyzer time if it was not timed */
+    public void writeSummary(Path file, int shards, int threads) throws IOException {
+        double seconds = elapsedSeconds();
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(String.format(Locale.ROOT, "{%n"
+                            + "  \"shards\": %d,%n"
+                            + "  \"threads\": %d,%n"
+                            + "  \"docs\": %d,%n"
+                            + "  \"bytes\": %d,%n"
+                            + "  \"unchanged\": %d,%n"
+                            + "  \"deleted\": %d,%n"
+                            + "  \"elapsedMillis\": %d,%n"
+                            + "  \"docsPerSec\": %.3f,%n"
+                            + "  \"mbPerSec\": %.3f,%n"
+                            + "  \"analyzerMillis\": %s,%n"
+                            + "  \"flushes\": %d,%n"
+                            + "  \"flushMillis\": %d,%n"
+                            + "  \"merges\": %d,%n"
+                            + "  \"mergeMillis\": %d%n"
+                            + "}%n",
+                    shards, threads, docs.sum(), bytes.sum(), unchanged.sum(), deleted.sum(), elapsedMillis(),
+                    docs.sum() / seconds, megabytes() / seconds,
+                    timeAnalyzer ? String.valueOf(TimeUnit.NANOSECONDS.toMillis(analyzerNanos.sum())) : "null",
+                    flushes.sum(), flushMillis.sum(),
+                    merges.sum(), TimeUnit.NANOSECONDS.toMillis(mergeNanos.sum())));
+        }
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(System.nanoTime() - start, 1) / 1e9;
+    }
+
+    private double megabytes() {
+        return bytes.sum() / (1024.0 * 1024.0);
+    }
+
+    /* Accounts the time spent by the wrapped chain of the analyzer */
+    private final class TimingFilter extends TokenFilter {
+        private long nanos = 0;
+
+        private TimingFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            long tokenStart = System.nanoTime();
+            boolean hasToken = input.incrementToken();
+            nanos += System.nanoTime() - tokenStart;
+            return hasToken;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            analyzerNanos.add(nanos);
+            nanos = 0;
+        }
+    }
+}
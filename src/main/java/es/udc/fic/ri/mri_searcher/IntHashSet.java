@@ -0,0 +1,111 @@
+package es.udc.fic.ri.mri_searcher;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive ints with open addressing and linear probing. Lookups do
+ * not box the values nor allocate, and every element takes 4 to 8 bytes.
+ */
+public class IntHashSet {
+
+    private final static int FREE = 0;
+    private final static int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int mask;
+    private int size = 0;
+    private boolean containsFree = false;  // FREE marks the empty slots, so it is kept apart
+
+    public IntHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, DEFAULT_CAPACITY / 2) * 2 - 1) << 1;
+        keys = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /** Adds the value, returning false if it was already in the set */
+    public boolean add(int value) {
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+
+        int slot = slot(value);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        size++;
+
+        /* Keep the load factor under 1/2 */
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(int value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+
+        int slot = slot(value);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the values of the set in ascending order */
+    public int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        if (containsFree) {
+            values[n++] = FREE;
+        }
+        for (int key : keys) {
+            if (key != FREE) {
+                values[n++] = key;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private int slot(int value) {
+        int hash = value * 0x9E3779B9;  // Fibonacci hashing spreads consecutive ids
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        keys = new int[capacity];
+        mask = capacity - 1;
+        for (int key : oldKeys) {
+            if (key != FREE) {
+                int slot = slot(key);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ranks a query under every smoothing parameter of a language model with a
+ * single pass over its postings. The frequency of each term and the length of
+ * every matching document are collected once, and the scores of a parameter
+ * are computed from them with the same arithmetic as LMJelinekMercerSimilarity
+ * and LMDirichletSimilarity, so the rankings are the ones of a search.
+ *
+ * Only disjunctions of terms, the queries of the topics, are supported.
+ */
+public class LMSweep {
+
+    /* Document lengths as SimilarityBase decodes them from the norms */
+    private final static float[] LENGTH_TABLE = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            LENGTH_TABLE[i] = SmallFloat.byte4ToInt((byte) i);
+        }
+    }
+
+    /**
+     * Matching documents of a query: their docIDs, lengths and the frequency of
+     * every clause, 0 if the document does not contain its term.
+     */
+    public static class Statistics {
+        private final int clauses;
+        private final double[] boosts;
+        private final double[] collectionProbabilities;
+        private int count = 0;
+        private int[] docs = new int[16];
+        private double[] lengths = new double[16];
+        private float[] freqs;
+
+        private Statistics(double[] boosts, double[] collectionProbabilities) {
+            this.clauses = boosts.length;
+            this.boosts = boosts;
+            this.collectionProbabilities = collectionProbabilities;
+            this.freqs = new float[16 * clauses];
+        }
+
+        /** Number of documents that match the query */
+        public int hits() {
+            return count;
+        }
+
+        private int add(int doc, double length) {
+            if (count == docs.length) {
+                docs = Arrays.copyOf(docs, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                freqs = Arrays.copyOf(freqs, count * 2 * clauses);
+            }
+            docs[count] = doc;
+            lengths[count] = length;
+            return count++;
+        }
+    }
+
+    private final IndexSearcher isearcher;
+    private final String field;
+    private final String model;
+
+    /** The model is "jm" or "dir" */
+    public LMSweep(IndexSearcher isearcher, String field, String model) {
+        if (!model.equals("jm") && !model.equals("dir")) {
+            throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        this.isearcher = isearcher;
+        this.field = field;
+        this.model = model;
+    }
+
+    /**
+     * Reads the postings of the query, or returns null if the query is not a
+     * disjunction of terms of the field and has to be searched.
+     */
+    public Statistics collect(Query query) throws IOException {
+        List<Term> terms = new ArrayList<>();
+        List<Float> boosts = new ArrayList<>();
+        Query rewritten = isearcher.rewrite(query);
+        if (rewritten instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) rewritten;
+            if (booleanQuery.getMinimumNumberShouldMatch() > 1) {
+                return null;
+            }
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                if (clause.getOccur() != BooleanClause.Occur.SHOULD || !addTerm(clause.getQuery(), 1f, terms, boosts)) {
+                    return null;
+                }
+            }
+        } else if (!(rewritten instanceof MatchNoDocsQuery) && !addTerm(rewritten, 1f, terms, boosts)) {
+            return null;
+        }
+
+        /* Same statistics as the weights of the TermQuery clauses */
+        CollectionStatistics collectionStats = isearcher.collectionStatistics(field);
+        List<Integer> clauses = new ArrayList<>();
+        List<Double> collectionProbabilities = new ArrayList<>();
+        for (int n = 0; n < terms.size(); n++) {
+            TermStates states = TermStates.build(isearcher.getTopReaderContext(), terms.get(n), true);
+            TermStatistics termStats = collectionStats == null || states.docFreq() == 0 ? null
+                    : isearcher.termStatistics(terms.get(n), states);
+            if (termStats != null) {
+                clauses.add(n);
+                collectionProbabilities.add((termStats.totalTermFreq() + 1D)
+                        / (collectionStats.sumTotalTermFreq() + 1D));
+            }
+        }
+
+        double[] clauseBoosts = new double[clauses.size()];
+        double[] clauseProbabilities = new double[clauses.size()];
+        for (int c = 0; c < clauses.size(); c++) {
+            clauseBoosts[c] = boosts.get(clauses.get(c));
+            clauseProbabilities[c] = collectionProbabilities.get(c);
+        }
+        Statistics stats = new Statistics(clauseBoosts, clauseProbabilities);
+
+        int[] slots = new int[isearcher.getIndexReader().maxDoc()];
+        Arrays.fill(slots, -1);
+        for (LeafReaderContext context : isearcher.getIndexReader().leaves()) {
+            LeafReader leaf = context.reader();
+            Terms leafTerms = leaf.terms(field);
+            if (leafTerms == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.getLiveDocs();
+            NumericDocValues norms = leaf.getNormValues(field);
+            TermsEnum termsEnum = leafTerms.iterator();
+            PostingsEnum postings = null;
+
+            for (int c = 0; c < clauses.size(); c++) {
+                if (!termsEnum.seekExact(terms.get(clauses.get(c)).bytes())) {
+                    continue;
+                }
+                postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    int slot = slots[context.docBase + doc];
+                    if (slot == -1) {
+                        long norm = 1L;
+                        if (norms != null && norms.advanceExact(doc)) {
+                            norm = norms.longValue();
+                        }
+                        slot = stats.add(context.docBase + doc, LENGTH_TABLE[Byte.toUnsignedInt((byte) norm)]);
+                        slots[context.docBase + doc] = slot;
+                    }
+                    stats.freqs[slot * stats.clauses + c] = postings.freq();
+                }
+            }
+        }
+
+        return stats;
+    }
+
+    /** Ranks the documents of the statistics under the lambda or mu given */
+    public EvalCollector rank(Statistics stats, float parameter, int size, Bits relevant, int totalRelevant) {
+        float[] scores = new float[stats.count];
+        for (int n = 0; n < stats.count; n++) {
+            /* The clauses are summed in double and rounded once, as WANDScorer does */
+            double score = 0;
+            for (int c = 0; c < stats.clauses; c++) {
+                float freq = stats.freqs[n * stats.clauses + c];
+                if (freq > 0) {
+                    score += model.equals("jm")
+                            ? jelinekMercer(stats.boosts[c], freq, stats.lengths[n], stats.collectionProbabilities[c],
+                                    parameter)
+                            : dirichlet(stats.boosts[c], freq, stats.lengths[n], stats.collectionProbabilities[c],
+                                    parameter);
+                }
+            }
+            scores[n] = (float) score;
+        }
+        return EvalCollector.top(stats.docs, scores, stats.count, size, relevant, totalRelevant);
+    }
+
+    /* LMJelinekMercerSimilarity.score, rounded as SimilarityBase does */
+    private static float jelinekMercer(double boost, double freq, double docLen, double collectionProbability,
+                                       float lambda) {
+        return (float) (boost * Math.log(1 + ((1 - lambda) * freq / docLen) / (lambda * collectionProbability)));
+    }
+
+    /* LMDirichletSimilarity.score, rounded as SimilarityBase does */
+    private static float dirichlet(double boost, double freq, double docLen, double collectionProbability,
+                                   float mu) {
+        double score = boost * (Math.log(1 + freq / (mu * collectionProbability)) + Math.log(mu / (docLen + mu)));
+        return (float) (score > 0.0d ? score : 0.0d);
+    }
+
+    /* Terms of the field, boosted or not, as the boost reaches the weight of the TermQuery */
+    private boolean addTerm(Query query, float boost, List<Term> terms, List<Float> boosts) {
+        if (query instanceof BoostQuery) {
+            return addTerm(((BoostQuery) query).getQuery(), boost * ((BoostQuery) query).getBoost(), terms, boosts);
+        }
+        if (query instanceof TermQuery && ((TermQuery) query).getTerm().field().equals(field)) {
+            terms.add(((TermQuery) query).getTerm());
+            boosts.add(boost);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+package es.udc.fic.ri.mri_searcher;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets: every power
+ * of two is split in 16 linear buckets, so a percentile is off by at most
+ * 1/16 of its value. Recording a value is an atomic increment and allocates
+ * nothing, and several threads can record at the same time.
+ */
+public class LatencyHistogram {
+
+    private final static int SUB_BITS = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Latencies of the phases of a query: getting the parsed query, searching
+     * it and resolving the hits into the ranking and the metric values.
+     */
+    public static class Phases {
+        public final LatencyHistogram parse = new LatencyHistogram();
+        public final LatencyHistogram search = new LatencyHistogram();
+        public final LatencyHistogram resolve = new LatencyHistogram();
+
+        /** Prints the percentiles of every phase, in milliseconds */
+        public void print(String title) {
+            System.out.println(title);
+            System.out.printf("%10s%s%n", "", header());
+            System.out.printf("%10s%s%n", "parse", parse.summary());
+            System.out.printf("%10s%s%n", "search", search.summary());
+            System.out.printf("%10s%s%n", "resolve", resolve.summary());
+        }
+    }
+
+    public void record(long nanos) {
+        buckets.incrementAndGet(bucket(Math.max(nanos, 0)));
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /** Returns the upper bound of the bucket with the given percentile, between 0 and 100 */
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    /** Names of the columns of summary() */
+    public static String header() {
+        return String.format(Locale.ROOT, "%9s%9s%9s%9s", "p50", "p90", "p99", "max");
+    }
+
+    /** The p50, p90, p99 and max in milliseconds, or n/a if nothing was recorded */
+    public String summary() {
+        if (count() == 0) {
+            return String.format(Locale.ROOT, "%9s%9s%9s%9s", "n/a", "n/a", "n/a", "n/a");
+        }
+        return String.format(Locale.ROOT, "%9.3f%9.3f%9.3f%9.3f", millis(percentile(50)), millis(percentile(90)),
+                millis(percentile(99)), millis(max()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /* The values under 16 have a bucket each, the others share it with the values of the same 5 top bits */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
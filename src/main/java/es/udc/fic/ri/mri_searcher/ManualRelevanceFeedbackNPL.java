@@ -1,23 +1,17 @@
 package es.udc.fic.ri.mri_searcher;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Paths;
 import java.util.*;
 
 public class ManualRelevanceFeedbackNPL {
@@ -25,10 +19,13 @@ public class ManualRelevanceFeedbackNPL {
     private final static String CONFIG_FILE = "config.properties";
     private static Map<String,String> properties;
 
+    private final static int DEFAULT_CACHE_MB = 32;
+
     public static void main(String[] args) {
         String usage = "java es.udc.fic.ri.mri_searcher.ManualRelevanceFeedbackNPL"
-                + " [-retmodel jm LAMBDA | dir MU | tfidf] [-indexin INDEX_PATH] [-cut N] "
-                + " [-metrica P | R | MAP] [-query Q]";
+                + " [-retmodel jm LAMBDA | dir MU | tfidf] [-indexin INDEX_PATH[,INDEX_PATH...]] [-cut N] "
+                + " [-metrica P | R | MAP | NDCG | RR] [-query Q] [-cachemb MB]"
+                + " [-dirmode fs | mmap | mmap-preload | heap | offheap]";
 
         String model = null;
         float modelParameter = 0;
@@ -36,6 +33,8 @@ public class ManualRelevanceFeedbackNPL {
         int cutN = 0;
         String metrica = null;
         int queryQ = 0;
+        int cacheMB = DEFAULT_CACHE_MB;
+        String dirMode = "fs";
 
         /* Check arguments */
         for (int i = 0; i < args.length; i++) {
@@ -52,6 +51,10 @@ public class ManualRelevanceFeedbackNPL {
                 metrica = args[++i];
             } else if ("-query".equals(args[i])) {
                 queryQ = Integer.parseInt(args[++i]);
+            } else if ("-cachemb".equals(args[i])) {
+                cacheMB = Integer.parseInt(args[++i]);
+            } else if ("-dirmode".equals(args[i])) {
+                dirMode = args[++i];
             }
         }
 
@@ -83,17 +86,28 @@ public class ManualRelevanceFeedbackNPL {
             System.exit(-1);
         }
 
-        if (!(metrica.equals("P") || metrica.equals("R") || metrica.equals("MAP"))) {
+        if (cacheMB < 0) {
+            System.err.println("MB must be 0 or greater: " + cacheMB);
+            System.exit(-1);
+        }
+
+        if (!IndexShards.DIR_MODES.contains(dirMode)) {
+            System.err.println("Unknown dirmode: " + dirMode);
+            System.exit(-1);
+        }
+
+        if (!(metrica.equals("P") || metrica.equals("R") || metrica.equals("MAP") || metrica.equals("NDCG")
+                || metrica.equals("RR"))) {
             System.err.println("Unknown metrica: " + metrica);
             System.exit(-1);
         }
 
         /* Computation */
         try {
-            Directory dir = FSDirectory.open(Paths.get(indexPath));
-            DirectoryReader ireader = DirectoryReader.open(dir);
+            IndexShards shards = IndexShards.open(indexPath, dirMode);
 
-            IndexSearcher isearcher = new IndexSearcher(ireader);
+            IndexSearcher isearcher = shards.newSearcher();
+            int[] nplIds = NPLIds.load(shards.reader());
             if (model.equals("jm")) {
                 isearcher.setSimilarity(new LMJelinekMercerSimilarity(modelParameter));
             } else if (model.equals("dir")){
@@ -103,50 +117,36 @@ public class ManualRelevanceFeedbackNPL {
             }
 
             QueryParser parser = new QueryParser("Contents", new StandardAnalyzer());
-            String queryText = readQueries(QUERIES_FILE).get(queryQ);
-            List<Integer> relevantDocs = readAssessments(ASSESSMENTS_FILE).get(queryQ);
+            TopicSet topics = TopicSet.load(QUERIES_FILE, ASSESSMENTS_FILE, getProperty("topicsnapshot"),
+                    new StandardAnalyzer());
+            String queryText = topics.queries().get(queryQ);
+            Query initialQuery = topics.query(queryQ);
+            IntHashSet relevantIds = topics.assessments().get(queryQ);
+            Bits relevantDocs = EvalCollector.relevantDocs(relevantIds, NPLIds.docIds(nplIds), nplIds.length);
+
+            /* The reader does not change during the session, so the rankings of the old formulations stay valid */
+            ResultCache cache = new ResultCache(cacheMB * 1024L * 1024L);
+            String similarity = model.equals("tfidf") ? model : model + " " + modelParameter;
 
             Scanner scanner = new Scanner(System.in);
             boolean end = false;
 
             do {
-                int relevantsRetrieved = 0;
-                float ap = 0;
-                int firstRelevantPosition = 0;
-                Document firstRelevantDoc = null;
-                float score = 0;
-
-                Query query = parser.parse(queryText);
-                ScoreDoc[] hits = isearcher.search(query, cutN).scoreDocs;
-                for (int i=0; i<Math.min(hits.length,cutN); i++) {
-                    Document hitDoc = isearcher.doc(hits[i].doc);
-                    String docIDNPL = hitDoc.get("DocIDNPL");
-
-                    boolean isRelevant = relevantDocs.contains(Integer.parseInt(docIDNPL));
-                    if (isRelevant) {
-                        relevantsRetrieved++;
-                        if (metrica.equals("MAP")) {
-                            ap += (float) relevantsRetrieved / (i+1);
-                        }
-                        if (firstRelevantPosition == 0) {
-                            firstRelevantPosition = i+1;
-                            firstRelevantDoc = isearcher.doc(hits[i].doc);
-                            score = hits[i].score;
-                        }
-                    }
+                /* The initial query comes already parsed from the topics */
+                Query query = initialQuery != null ? initialQuery : parser.parse(queryText);
+                initialQuery = null;
+                EvalCollector hits = cache.get(query, similarity, cutN, relevantDocs, relevantIds.size());
+                if (hits == null) {
+                    hits = EvalCollector.search(isearcher, query, cutN, relevantDocs, relevantIds.size());
+                    cache.put(query, similarity, cutN, hits);
                 }
+                float measure = hits.value(metrica, cutN);
 
-                float measure = 0;
-                if (metrica.equals("P")) {
-                    measure = (float) relevantsRetrieved / cutN;
-                } else if (metrica.equals("R")) {
-                    measure = (float) relevantsRetrieved / relevantDocs.size();
-                } else if (metrica.equals("MAP")) {
-                    measure = ap / relevantDocs.size();
-                }
-
-                String docIDNPL = firstRelevantDoc == null ? "0" : firstRelevantDoc.get("DocIDNPL");
-                String contents = firstRelevantDoc == null ? "" : firstRelevantDoc.get("Contents");
+                int firstRelevant = hits.firstRelevant();
+                int firstRelevantPosition = firstRelevant + 1;
+                float score = firstRelevant == -1 ? 0 : hits.score(firstRelevant);
+                String docIDNPL = firstRelevant == -1 ? "0" : String.valueOf(nplIds[hits.doc(firstRelevant)]);
+                String contents = firstRelevant == -1 ? "" : isearcher.doc(hits.doc(firstRelevant)).get("Contents");
 
                 System.out.printf("QUERY => %s%n", queryText);
                 System.out.printf("%7s%16s%8s%13s%12s   %s%n", "METRICA", "METRICA_VALUE", "RANK",
@@ -169,8 +169,10 @@ public class ManualRelevanceFeedbackNPL {
 
             } while (!end);
 
-            ireader.close();
-            dir.close();
+            System.out.printf("Result cache: %d hits of %d queries (%.1f%%)%n", cache.hits(), cache.lookups(),
+                    100 * cache.hitRate());
+
+            shards.close();
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -180,67 +182,6 @@ public class ManualRelevanceFeedbackNPL {
     }
 
 
-    private static Map<Integer,String> readQueries(String file) {
-        Map<Integer,String> queries = new HashMap<>();
-
-        try (Scanner scanner = new Scanner(new File(file))) {
-            int id = 0;
-            String query = "";
-            boolean nextQuery = true;
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
-
-                if (line.equals("/")) {
-                    queries.put(id, query.toLowerCase());
-                    nextQuery = true;
-                    query = "";
-                } else if (nextQuery) {
-                    id = Integer.parseInt(line);
-                    nextQuery = false;
-                } else {
-                    query = query.equals("") ? line : query + " " + line;
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return queries;
-    }
-
-    private static Map<Integer, List<Integer>> readAssessments(String file) {
-        Map<Integer,List<Integer>> assessments = new HashMap<>();
-
-        try (Scanner scanner = new Scanner(new File(file))) {
-            int query = 0;
-            boolean nextQuery = true;
-            List<Integer> docs = new LinkedList<>();
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
-
-                if (line.equals("/")) {
-                    assessments.put(query, docs);
-                    nextQuery = true;
-                    docs = new LinkedList<>();
-                } else if (nextQuery) {
-                    query = Integer.parseInt(line);
-                    nextQuery = false;
-                } else if (!line.equals("")){
-                    for (String doc : line.split("\\s+")) {
-                        int docID = Integer.parseInt(doc);
-                        docs.add(docID);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return assessments;
-    }
-
     private static String getProperty(String name) {
         if (properties == null) {
             ClassLoader classLoader = ManualRelevanceFeedbackNPL.class.getClassLoader();
@@ -0,0 +1,90 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Resolves the Lucene docIDs of a reader to the DocIDNPL of the collection.
+ * The table is built once when the reader is opened, so the hits can be
+ * matched against the relevance assessments without loading stored fields.
+ */
+public class NPLIds {
+
+    private final static String FIELD = "DocIDNPL";
+    private final static Set<String> FIELDS_TO_LOAD = Collections.singleton(FIELD);
+
+    /**
+     * Returns the DocIDNPL of every document, indexed by its docID in the
+     * reader. The numeric doc values written by IndexNPL are used, and the
+     * stored field only for segments indexed before they existed. Deleted
+     * documents get -1, so a replaced document never shadows its new version.
+     */
+    public static int[] load(IndexReader reader) throws IOException {
+        int[] ids = new int[reader.maxDoc()];
+
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            System.arraycopy(segment(leaf), 0, ids, context.docBase, leaf.maxDoc());
+
+            Bits liveDocs = leaf.getLiveDocs();
+            if (liveDocs != null) {
+                for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                    if (!liveDocs.get(doc)) {
+                        ids[context.docBase + doc] = -1;
+                    }
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns the DocIDNPL of every document of a segment, indexed by its
+     * docID in the segment, deleted or not. It only depends on the core of the
+     * segment, so it stays valid while the segment is open.
+     */
+    public static int[] segment(LeafReader leaf) throws IOException {
+        int[] ids = new int[leaf.maxDoc()];
+        NumericDocValues values = leaf.getNumericDocValues(FIELD);
+
+        if (values != null) {
+            for (int doc = values.nextDoc(); doc != NumericDocValues.NO_MORE_DOCS; doc = values.nextDoc()) {
+                ids[doc] = (int) values.longValue();
+            }
+        } else {
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                ids[doc] = Integer.parseInt(leaf.document(doc, FIELDS_TO_LOAD).get(FIELD));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the docID of every DocIDNPL, indexed by the DocIDNPL, or -1 for
+     * the ids that are not in the index.
+     */
+    public static int[] docIds(int[] nplIds) {
+        int maxId = -1;
+        for (int id : nplIds) {
+            maxId = Math.max(maxId, id);
+        }
+
+        int[] docIds = new int[maxId + 1];
+        Arrays.fill(docIds, -1);
+        for (int doc = 0; doc < nplIds.length; doc++) {
+            if (nplIds[doc] >= 0) {
+                docIds[nplIds[doc]] = doc;
+            }
+        }
+        return docIds;
+    }
+}
@@ -0,0 +1,176 @@
+package es.udc.fic.ri.mri_searcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the files of the NPL collection (documents, queries and
+ * relevance assessments). Every record is an id line, followed by any number of
+ * text lines, and ends with a line that only contains "/".
+ *
+ * The file is memory-mapped in windows and the lines are split at the byte
+ * level, so the heap only holds the record being returned. The text lines are
+ * trimmed and joined with a single space, as the collection was read before,
+ * and the bytes of the record are decoded at once into its text.
+ */
+public class NPLParser implements Closeable {
+
+    private final static int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Record of the collection: its id and the joined text lines */
+    public static class Record {
+        private final String id;
+        private final String text;
+        private final int length;
+
+        private Record(String id, String text, int length) {
+            this.id = id;
+            this.text = text;
+            this.length = length;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        /** Size of the record in the file, in bytes */
+        public int length() {
+            return length;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long size;
+
+    /* Bytes of the id or the joined text lines of the record being parsed */
+    private byte[] bytes = new byte[1024];
+    private int length = 0;
+
+    private MappedByteBuffer window;
+    private ByteBuffer view;
+    private long windowStart = 0;
+    private int windowSize;
+
+    public NPLParser(Path file) throws IOException {
+        this(file, WINDOW_SIZE);
+    }
+
+    /* Smaller windows make the records cross their ends, which is what the tests need */
+    NPLParser(Path file, int windowSize) throws IOException {
+        this.windowSize = windowSize;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    /**
+     * Returns the next record of the file, or null if there are no more.
+     * A last record without the "/" line is ignored.
+     */
+    public Record next() throws IOException {
+        while (true) {
+            int start = window.position();
+            Record record = parseRecord(start);
+            if (record != null) {
+                return record;
+            }
+
+            long recordStart = windowStart + start;
+            if (windowStart + window.limit() >= size) {
+                window.position(window.limit());
+                return null;
+            }
+
+            /* The record crosses the end of the window: map again from its first byte */
+            if (start == 0) {
+                windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+            }
+            map(recordStart);
+        }
+    }
+
+    /* Parses the record starting at the given position, or returns null if the window ends before it does */
+    private Record parseRecord(int start) {
+        boolean eof = windowStart + window.limit() >= size;
+        int limit = window.limit();
+        int pos = start;
+        String id = null;
+        length = 0;
+
+        while (pos < limit) {
+            int end = pos;
+            while (end < limit && window.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit && !eof) {
+                return null;
+            }
+
+            /* Trim the line like String.trim() */
+            int from = pos, to = end;
+            while (from < to && (window.get(from) & 0xFF) <= ' ') {
+                from++;
+            }
+            while (to > from && (window.get(to - 1) & 0xFF) <= ' ') {
+                to--;
+            }
+            pos = Math.min(end + 1, limit);
+
+            if (to - from == 1 && window.get(from) == '/') {
+                window.position(pos);
+                return new Record(id, new String(bytes, 0, length, StandardCharsets.UTF_8), pos - start);
+            } else if (id == null) {
+                append(from, to);
+                id = new String(bytes, 0, length, StandardCharsets.UTF_8);
+                length = 0;
+            } else {
+                if (length > 0) {
+                    append(' ');
+                }
+                append(from, to);
+            }
+        }
+        return null;
+    }
+
+    /* Appends the bytes [from,to) of the window */
+    private void append(int from, int to) {
+        grow(to - from);
+        view.limit(to).position(from);
+        view.get(bytes, length, to - from);
+        length += to - from;
+    }
+
+    private void append(char c) {
+        grow(1);
+        bytes[length++] = (byte) c;
+    }
+
+    private void grow(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + extra));
+        }
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+        view = window.duplicate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
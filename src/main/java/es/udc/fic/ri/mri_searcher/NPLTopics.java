@@ -0,0 +1,57 @@
+package es.udc.fic.ri.mri_searcher;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Loaders of the queries and the relevance assessments of the NPL collection,
+ * shared by all the evaluators.
+ */
+public class NPLTopics {
+
+    /** Returns the lowercased text of every query, sorted by its id */
+    public static NavigableMap<Integer,String> readQueries(String file) {
+        NavigableMap<Integer,String> queries = new TreeMap<>();
+
+        try (NPLParser parser = new NPLParser(Paths.get(file))) {
+            NPLParser.Record record;
+            while ((record = parser.next()) != null) {
+                queries.put(Integer.parseInt(record.id()), record.text().toLowerCase());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return queries;
+    }
+
+    /**
+     * Returns the DocIDNPL of the relevant documents of every query. The sets
+     * are primitive, so checking whether a hit is relevant neither scans a
+     * list nor boxes the id. A document repeated in the assessments of a query
+     * is counted once, also in the denominators of R and MAP.
+     */
+    public static Map<Integer,IntHashSet> readAssessments(String file) {
+        Map<Integer,IntHashSet> assessments = new HashMap<>();
+
+        try (NPLParser parser = new NPLParser(Paths.get(file))) {
+            NPLParser.Record record;
+            while ((record = parser.next()) != null) {
+                String[] docs = record.text().equals("") ? new String[0] : record.text().split("\\s+");
+                IntHashSet relevantDocs = new IntHashSet(docs.length);
+                for (String doc : docs) {  // La query puede no tener relevantes
+                    relevantDocs.add(Integer.parseInt(doc));
+                }
+                assessments.put(Integer.parseInt(record.id()), relevantDocs);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return assessments;
+    }
+}
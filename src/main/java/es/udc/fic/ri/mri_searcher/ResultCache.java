@@ -0,0 +1,119 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Bits;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * LRU cache of the rankings of the queries, bounded by an estimate of the
+ * bytes it holds. The key is the parsed query, whose equality already ignores
+ * the case of the terms and the order of the clauses, with the similarity and
+ * the cut it was searched with. Only the docIDs and scores are kept, so the
+ * rankings are valid while the reader they come from is open.
+ */
+public class ResultCache {
+
+    /* Rough size of a key, an entry of the map and the headers of the arrays */
+    private final static int ENTRY_OVERHEAD = 160;
+
+    private static class Key {
+        private final Query query;
+        private final String similarity;
+        private final int cut;
+
+        private Key(Query query, String similarity, int cut) {
+            this.query = query;
+            this.similarity = similarity;
+            this.cut = cut;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return cut == key.cut && similarity.equals(key.similarity) && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, similarity, cut);
+        }
+    }
+
+    private static class Ranking {
+        private final int[] docs;
+        private final float[] scores;
+        private final long bytes;
+
+        private Ranking(int[] docs, float[] scores, long bytes) {
+            this.docs = docs;
+            this.scores = scores;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key,Ranking> rankings = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private int hits = 0;
+    private int misses = 0;
+
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the cached ranking of the query, or null if it has to be searched */
+    public EvalCollector get(Query query, String similarity, int cut, Bits relevant,
+                             int totalRelevant) {
+        Ranking ranking = rankings.get(new Key(query, similarity, cut));
+        if (ranking == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return EvalCollector.ranked(ranking.docs, ranking.scores, relevant, totalRelevant);
+    }
+
+    /** Keeps the ranking of the query, evicting the least recently used ones over the budget */
+    public void put(Query query, String similarity, int cut, EvalCollector collector) {
+        int[] docs = new int[collector.hits()];
+        float[] scores = new float[collector.hits()];
+        for (int rank = 0; rank < docs.length; rank++) {
+            docs[rank] = collector.doc(rank);
+            scores[rank] = collector.score(rank);
+        }
+
+        long size = ENTRY_OVERHEAD + 2L * query.toString().length() + 2L * similarity.length()
+                + (long) Integer.BYTES * docs.length + (long) Float.BYTES * scores.length;
+        if (size > maxBytes) {
+            return;
+        }
+
+        Ranking previous = rankings.put(new Key(query, similarity, cut), new Ranking(docs, scores, size));
+        bytes += size - (previous == null ? 0 : previous.bytes);
+
+        Iterator<Map.Entry<Key,Ranking>> eldest = rankings.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    public int hits() {
+        return hits;
+    }
+
+    public int lookups() {
+        return hits + misses;
+    }
+
+    public float hitRate() {
+        return lookups() == 0 ? 0 : (float) hits / lookups();
+    }
+}
@@ -0,0 +1,164 @@
+package es.udc.fic.ri.mri_searcher;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures of single queries kept in a file, so a training that is stopped or
+ * repeated with other ranges, grids or optimizers only computes the ones it
+ * is missing. A measure is identified by the model, its parameter, the cut,
+ * the metric and the query. The file belongs to one identity, the commits of
+ * the index and the topics they are computed from: when it changes the
+ * stored measures are discarded.
+ *
+ * The measures are appended as fixed size records, so a file cut by a run
+ * that died keeps every record written before the last incomplete one.
+ */
+public class ResultStore implements Closeable {
+
+    private final static int MAGIC = 0x4E504C52;
+    private final static int VERSION = 1;
+
+    private final static List<String> MODELS = Arrays.asList("jm", "dir");
+    private final static List<String> METRICS = Arrays.asList("P", "R", "MAP", "NDCG", "RR");
+
+    /* Model, parameter, cut, metric, query and measure */
+    private final static int RECORD_BYTES = 1 + 4 + 4 + 1 + 4 + 4;
+
+    private final Map<String,Float> measures;
+    private final DataOutputStream out;
+    private final int stored;
+    private final AtomicInteger reused = new AtomicInteger();
+    private int computed = 0;
+
+    private ResultStore(Map<String,Float> measures, DataOutputStream out) {
+        this.measures = measures;
+        this.out = out;
+        this.stored = measures.size();
+    }
+
+    /** Opens the store of the file, or starts it again if it does not exist or has another identity */
+    public static ResultStore open(String file, String identity) throws IOException {
+        Path path = Paths.get(file);
+        Map<String,Float> measures = new ConcurrentHashMap<>();
+        long valid = path.toFile().isFile() ? read(path, identity, measures) : -1;
+
+        if (valid < 0) {
+            measures.clear();
+            try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(path))) {
+                byte[] bytes = identity.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(bytes.length);
+                header.write(bytes);
+            }
+        } else {
+            /* Drops the incomplete record a run that died may have left */
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+
+        return new ResultStore(measures, new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND))));
+    }
+
+    /* Reads the records into the map and returns the length of the complete ones, or -1 if it is another store */
+    private static long read(Path path, String identity, Map<String,Float> measures) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return -1;
+            }
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                return -1;
+            }
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            if (!new String(bytes, StandardCharsets.UTF_8).equals(identity)) {
+                return -1;
+            }
+
+            while (in.remaining() >= RECORD_BYTES) {
+                int model = in.get();
+                float parameter = in.getFloat();
+                int cut = in.getInt();
+                int metric = in.get();
+                int query = in.getInt();
+                float measure = in.getFloat();
+                if (model < 0 || model >= MODELS.size() || metric < 0 || metric >= METRICS.size()) {
+                    return -1;
+                }
+                measures.put(key(MODELS.get(model), parameter, cut, METRICS.get(metric), query), measure);
+            }
+            return in.position();
+        }
+    }
+
+    private static String key(String model, float parameter, int cut, String metric, int query) {
+        return model + ' ' + Float.floatToIntBits(parameter) + ' ' + cut + ' ' + metric + ' ' + query;
+    }
+
+    /** Returns the stored measure, or null if it has to be computed */
+    public Float get(String model, float parameter, int cut, String metric, int query) {
+        Float measure = measures.get(key(model, parameter, cut, metric, query));
+        if (measure != null) {
+            reused.incrementAndGet();
+        }
+        return measure;
+    }
+
+    /** Keeps a computed measure. It reaches the file when the store is flushed */
+    public synchronized void put(String model, float parameter, int cut, String metric, int query, float measure)
+            throws IOException {
+        if (measures.putIfAbsent(key(model, parameter, cut, metric, query), measure) != null) {
+            return;
+        }
+        out.writeByte(MODELS.indexOf(model));
+        out.writeFloat(parameter);
+        out.writeInt(cut);
+        out.writeByte(METRICS.indexOf(metric));
+        out.writeInt(query);
+        out.writeFloat(measure);
+        computed++;
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /** Number of measures read from the file when it was opened */
+    public int stored() {
+        return stored;
+    }
+
+    /** Number of measures returned by get */
+    public int reused() {
+        return reused.get();
+    }
+
+    /** Number of measures computed and added since it was opened */
+    public synchronized int computed() {
+        return computed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,122 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.util.Bits;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rankings read from a run in the TREC format written by RunWriter, so they
+ * can be evaluated again without the index. The hits of every query are
+ * ordered by their rank column, not by their position in the file.
+ */
+public class RunFile {
+
+    private final Map<Integer,Ranking> rankings;
+    private final int maxDocId;
+
+    /* Hits of a query, as parallel arrays sorted by rank */
+    private static class Ranking {
+        private int[] ranks = new int[16];
+        private int[] docs = new int[16];
+        private float[] scores = new float[16];
+        private int count = 0;
+
+        private void add(int rank, int doc, float score) {
+            if (count == docs.length) {
+                ranks = Arrays.copyOf(ranks, count * 2);
+                docs = Arrays.copyOf(docs, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            ranks[count] = rank;
+            docs[count] = doc;
+            scores[count] = score;
+            count++;
+        }
+
+        private void sort() {
+            /* Insertion sort: the runs are usually written in order already */
+            for (int i = 1; i < count; i++) {
+                int rank = ranks[i];
+                int doc = docs[i];
+                float score = scores[i];
+                int j = i - 1;
+                while (j >= 0 && ranks[j] > rank) {
+                    ranks[j + 1] = ranks[j];
+                    docs[j + 1] = docs[j];
+                    scores[j + 1] = scores[j];
+                    j--;
+                }
+                ranks[j + 1] = rank;
+                docs[j + 1] = doc;
+                scores[j + 1] = score;
+            }
+        }
+    }
+
+    private RunFile(Map<Integer,Ranking> rankings, int maxDocId) {
+        this.rankings = rankings;
+        this.maxDocId = maxDocId;
+    }
+
+    /** Reads the run. Throws IOException if a line does not have the six columns */
+    public static RunFile read(String file) throws IOException {
+        Map<Integer,Ranking> rankings = new HashMap<>();
+        int maxDocId = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] columns = line.split("\\s+");
+                if (columns.length != 6) {
+                    throw new IOException("Invalid run line " + lineNumber + ": " + line);
+                }
+                int queryId = Integer.parseInt(columns[0]);
+                int doc = Integer.parseInt(columns[2]);
+                int rank = Integer.parseInt(columns[3]);
+                float score = Float.parseFloat(columns[4]);
+
+                rankings.computeIfAbsent(queryId, id -> new Ranking()).add(rank, doc, score);
+                maxDocId = Math.max(maxDocId, doc);
+            }
+        }
+
+        for (Ranking ranking : rankings.values()) {
+            ranking.sort();
+        }
+        return new RunFile(rankings, maxDocId);
+    }
+
+    /**
+     * Returns the ranking of the query ready to be evaluated against its
+     * relevant DocIDNPL. A query missing from the run retrieved nothing.
+     */
+    public EvalCollector hits(int queryId, IntHashSet relevantIds) {
+        int[] ids = relevantIds.toArray();
+        int maxId = Math.max(maxDocId, ids.length == 0 ? 0 : ids[ids.length - 1]);
+        int first = 0;
+        while (first < ids.length && ids[first] < 0) {
+            first++;
+        }
+        Bits relevant = EvalCollector.sortedDocs(Arrays.copyOfRange(ids, first, ids.length), maxId + 1);
+
+        Ranking ranking = rankings.get(queryId);
+        if (ranking == null) {
+            return EvalCollector.ranked(new int[0], new float[0], relevant, relevantIds.size());
+        }
+        return EvalCollector.ranked(Arrays.copyOf(ranking.docs, ranking.count),
+                Arrays.copyOf(ranking.scores, ranking.count), relevant, relevantIds.size());
+    }
+}
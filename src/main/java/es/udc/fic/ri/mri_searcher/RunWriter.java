@@ -0,0 +1,43 @@
+package es.udc.fic.ri.mri_searcher;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Writes rankings in the TREC run format, one line per hit:
+ *
+ *   qid Q0 docid rank score tag
+ *
+ * where docid is the DocIDNPL and rank starts at 1. The lines are buffered
+ * and written as every query is evaluated, so a run is never kept whole in
+ * memory.
+ */
+public class RunWriter implements Closeable {
+
+    private final BufferedWriter writer;
+    private final String tag;
+    private final StringBuilder line = new StringBuilder();
+
+    public RunWriter(String file, String tag) throws IOException {
+        this.writer = Files.newBufferedWriter(Paths.get(file));
+        this.tag = tag;
+    }
+
+    /** Writes the hits collected for the query, given the DocIDNPL of every docID */
+    public void write(int queryId, EvalCollector hits, int[] nplIds) throws IOException {
+        for (int n = 0; n < hits.hits(); n++) {
+            line.setLength(0);
+            line.append(queryId).append(" Q0 ").append(nplIds[hits.doc(n)]).append(' ').append(n+1)
+                    .append(' ').append(hits.score(n)).append(' ').append(tag).append('\n');
+            writer.append(line);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -1,24 +1,20 @@
 package es.udc.fic.ri.mri_searcher;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SearchEvalNPL {
 
@@ -27,20 +23,49 @@ public class SearchEvalNPL {
 
     private enum TypeQuery { SIMPLE, RANGE, ALL }
 
+    private final static String[] ALL_METRICS = {"P", "R", "MAP", "NDCG", "RR"};
+
+    private static int[] cuts = null;
+    private static String[] metricas = null;
+    private static int topM = 0;
+    private static LatencyHistogram.Phases latency = new LatencyHistogram.Phases();
+
+    /*
+     * Lines printed for a query, its hits and the value of every metric at every
+     * cut, in the order of the table columns. The values are null if the query
+     * was ignored, and the hits too unless a run is written.
+     */
+    private static class QueryResult {
+        private final String output;
+        private final EvalCollector hits;
+        private final float[] values;
+
+        private QueryResult(String output, EvalCollector hits, float[] values) {
+            this.output = output;
+            this.hits = hits;
+            this.values = values;
+        }
+    }
+
     public static void main(String[] args) {
         String usage = "java es.udc.fic.ri.mri_searcher.SearchEvalNPL"
-                + " [-search jm lambda | dir mu | tfidf] [-indexin INDEX_PATH] [-cut N]"
-                + " [-metrica P | R | MAP] [-top M] [-queries all | INT1 | INT1-INT2]";
+                + " [-search jm lambda | dir mu | tfidf] [-indexin INDEX_PATH[,INDEX_PATH...]] [-cut N[,N...]]"
+                + " [-metrica P | R | MAP | NDCG | RR[,...] | all] [-top M] [-queries all | INT1 | INT1-INT2]"
+                + " [-threads N] [-run RUN_FILE [-tag TAG]] [-fromrun RUN_FILE]"
+                + " [-dirmode fs | mmap | mmap-preload | heap | offheap] [-warmup W]";
 
         String similarityMode = null;
         float similarityValue = 0;
         String indexPath = null;
-        int cutN = 0;
-        String metrica = null;
-        int topM = 0;
         TypeQuery typeQuery = null;
         int queryInt1 = 0;
         int queryInt2 = 0;
+        int threads = 1;
+        String runFile = null;
+        String runTag = null;
+        String fromRunFile = null;
+        String dirMode = "fs";
+        int warmup = 0;
 
         /* Check arguments */
         for (int i = 0; i < args.length; i++) {
@@ -52,11 +77,28 @@ public class SearchEvalNPL {
             } else if ("-indexin".equals(args[i])) {
                 indexPath = args[++i];
             } else if ("-cut".equals(args[i])) {
-                cutN = Integer.parseInt(args[++i]);
+                String[] values = args[++i].split(",");
+                cuts = new int[values.length];
+                for (int n = 0; n < values.length; n++) {
+                    cuts[n] = Integer.parseInt(values[n].trim());
+                }
             } else if ("-metrica".equals(args[i])) {
-                metrica = args[++i];
+                String value = args[++i];
+                metricas = value.equals("all") ? ALL_METRICS : value.split(",");
             } else if ("-top".equals(args[i])) {
                 topM = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-run".equals(args[i])) {
+                runFile = args[++i];
+            } else if ("-tag".equals(args[i])) {
+                runTag = args[++i];
+            } else if ("-fromrun".equals(args[i])) {
+                fromRunFile = args[++i];
+            } else if ("-dirmode".equals(args[i])) {
+                dirMode = args[++i];
+            } else if ("-warmup".equals(args[i])) {
+                warmup = Integer.parseInt(args[++i]);
             } else if ("-queries".equals(args[i])) {
                 String value = args[++i];
                 if (value.equals("all")) {
@@ -87,24 +129,36 @@ public class SearchEvalNPL {
             System.exit(-1);
         }
 
-        if (similarityMode == null || indexPath == null || metrica == null || cutN == 0 || typeQuery == null) {
+        /* A saved run is evaluated without the index */
+        if (((similarityMode == null || indexPath == null) && fromRunFile == null) || metricas == null
+                || cuts == null || typeQuery == null) {
             System.err.println(usage);
             System.exit(-1);
         }
 
-        if (!(similarityMode.equals("jm") || similarityMode.equals("dir") || similarityMode.equals("tfidf"))) {
-            System.err.println("Unknown indexingmodel: " + similarityMode);
+        if (runFile != null && fromRunFile != null) {
+            System.err.println("-run and -fromrun are exclusive");
             System.exit(-1);
         }
 
-        if (cutN < 0) {
-            System.err.println("N must be greater than 0: " + cutN);
+        if (fromRunFile == null && !(similarityMode.equals("jm") || similarityMode.equals("dir")
+                || similarityMode.equals("tfidf"))) {
+            System.err.println("Unknown indexingmodel: " + similarityMode);
             System.exit(-1);
         }
 
-        if (!(metrica.equals("P") || metrica.equals("R") || metrica.equals("MAP"))) {
-            System.err.println("Unknown metrica: " + metrica);
-            System.exit(-1);
+        for (int cut : cuts) {
+            if (cut <= 0) {
+                System.err.println("N must be greater than 0: " + cut);
+                System.exit(-1);
+            }
+        }
+
+        for (String metrica : metricas) {
+            if (!Arrays.asList(ALL_METRICS).contains(metrica)) {
+                System.err.println("Unknown metrica: " + metrica);
+                System.exit(-1);
+            }
         }
 
         if (topM < 0) {
@@ -122,26 +176,67 @@ public class SearchEvalNPL {
             System.exit(-1);
         }
 
+        if (threads <= 0) {
+            System.err.println("N must be greater than 0: " + threads);
+            System.exit(-1);
+        }
+
+        if (!IndexShards.DIR_MODES.contains(dirMode)) {
+            System.err.println("Unknown dirmode: " + dirMode);
+            System.exit(-1);
+        }
+
+        if (warmup < 0) {
+            System.err.println("W must be 0 or greater: " + warmup);
+            System.exit(-1);
+        }
+
         /* Query processing */
         try {
-            Directory dir = FSDirectory.open(Paths.get(indexPath));
-            DirectoryReader ireader = DirectoryReader.open(dir);
-            IndexSearcher isearcher = new IndexSearcher(ireader);
-
-            switch (similarityMode) {
-                case "jm":
-                    isearcher.setSimilarity(new LMJelinekMercerSimilarity(similarityValue));
-                    break;
-                case "dir":
-                    isearcher.setSimilarity(new LMDirichletSimilarity(similarityValue));
-                    break;
-                case "tfidf":
-                    isearcher.setSimilarity(new ClassicSimilarity()); // Implementation of TFIDF
-                    break;
+            IndexShards shards = null;
+            IndexSearcher isearcher = null;
+            int[] nplIds = null;
+            int[] docIds = null;
+            RunFile savedRun = null;
+
+            if (fromRunFile != null) {
+                savedRun = RunFile.read(fromRunFile);
+            } else {
+                shards = IndexShards.open(indexPath, dirMode);
+                isearcher = shards.newSearcher();
+                nplIds = NPLIds.load(shards.reader());
+                docIds = NPLIds.docIds(nplIds);
+
+                switch (similarityMode) {
+                    case "jm":
+                        isearcher.setSimilarity(new LMJelinekMercerSimilarity(similarityValue));
+                        break;
+                    case "dir":
+                        isearcher.setSimilarity(new LMDirichletSimilarity(similarityValue));
+                        break;
+                    case "tfidf":
+                        isearcher.setSimilarity(new ClassicSimilarity()); // Implementation of TFIDF
+                        break;
+                }
             }
 
-            NavigableMap<Integer,String> queries = readQueries(QUERIES_FILE);
-            Map<Integer,List<Integer>> assessments = readAssessments(ASSESSMENTS_FILE);
+            RunWriter run = null;
+            if (runFile != null) {
+                if (runTag == null) {
+                    runTag = similarityMode.equals("tfidf") ? similarityMode : similarityMode + similarityValue;
+                }
+                run = new RunWriter(runFile, runTag);
+            }
+
+            TopicSet topics = TopicSet.load(QUERIES_FILE, ASSESSMENTS_FILE, getProperty("topicsnapshot"),
+                    new StandardAnalyzer());
+            NavigableMap<Integer,String> queries = topics.queries();
+            Map<Integer,IntHashSet> assessments = topics.assessments();
+
+            /* The warm-up queries are not part of the results nor of the latencies */
+            if (shards != null && warmup > 0) {
+                shards.warmUp(isearcher, topics.sample(warmup), Arrays.stream(cuts).max().getAsInt());
+            }
 
             if (typeQuery == TypeQuery.ALL) {
                 queryInt1 = queries.firstKey();
@@ -150,142 +245,191 @@ public class SearchEvalNPL {
                 queryInt2 = queryInt1;
             }
 
-            QueryParser parser = new QueryParser("Contents", new StandardAnalyzer());
+            /* The queries are evaluated concurrently, but printed and aggregated in order */
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<QueryResult>> results = new ArrayList<>();
+            for (int i=queryInt1; i<=queryInt2; i++) {
+                final int id = i;
+                final IndexSearcher searcher = isearcher;
+                final int[] queryNplIds = nplIds;
+                final int[] queryDocIds = docIds;
+                final RunFile queryRun = savedRun;
+                final boolean searchIgnored = run != null;
+                latency.parse.record(topics.parseNanos(id));
+                results.add(executor.submit(() -> evaluateQuery(searcher, queryNplIds, queryDocIds, queryRun,
+                        searchIgnored, id, queries.get(id), topics.query(id), assessments.get(id))));
+            }
 
             int nQueriesWithRelevants = 0;
-            float accum = 0;
+            float[] accum = new float[metricas.length * cuts.length];
 
-            for (int i=queryInt1; i<=queryInt2; i++) {
-                System.out.printf("%nQUERY %2d => %s%n", i, queries.get(i));
-                if (assessments.get(i).size() == 0) {
-                    System.out.println("Ignored. This query has no relevants.");
-                    continue;
+            for (int q = 0; q < results.size(); q++) {
+                Future<QueryResult> result = results.get(q);
+                System.out.print(result.get().output);
+                if (run != null) {
+                    run.write(queryInt1 + q, result.get().hits, nplIds);
                 }
-                nQueriesWithRelevants++;
-                System.out.printf("%5s%12s%12s%12s%12s%n", "Rank", "DocIDNPL", "Score", "Relevant", "Contents");
-
-                int relevantsRetrieved = 0;
-                float ap = 0;
-
-                int limit = Math.max(cutN, topM);
-                Query query = parser.parse(queries.get(i));
-                ScoreDoc[] hits = isearcher.search(query, limit).scoreDocs;
-                for (int n=0; n<Math.min(hits.length,limit); n++) {
-                    Document hitDoc = isearcher.doc(hits[n].doc);
-                    String docIDNPL = hitDoc.get("DocIDNPL");
-                    String content = hitDoc.get("Contents");
-
-                    float score = hits[n].score;
-                    boolean isRelevant = assessments.get(i).contains(Integer.parseInt(docIDNPL));
-
-                    /* Compute to the metric */
-                    if (n < cutN) {
-                        if (isRelevant) {
-                            relevantsRetrieved++;
-                            ap += (float) relevantsRetrieved / (n+1);
-                        }
+                if (result.get().values != null) {
+                    nQueriesWithRelevants++;
+                    for (int n = 0; n < accum.length; n++) {
+                        accum[n] += result.get().values[n];
                     }
-
-                    /* Show the ranking */
-                    if (n < topM) {
-                        System.out.printf("%5d%12s%12f%12b    %s%n", n+1, docIDNPL, score, isRelevant, content);
-                    }
-                }
-
-                if (metrica.equals("P")) {
-                    float precision = (float) relevantsRetrieved / cutN;
-                    accum += precision;
-                    System.out.printf("P@%d = %f%n", cutN, precision);
-                } else if (metrica.equals("R")) {
-                    float recall = (float) relevantsRetrieved / assessments.get(i).size();
-                    accum += recall;
-                    System.out.printf("R@%d = %f%n", cutN, recall);
-                } else if (metrica.equals("MAP")) {
-                    ap /= assessments.get(i).size();
-                    accum += ap;
-                    System.out.printf("AP@%d = %f%n", cutN, ap);
                 }
             }
+            executor.shutdown();
 
             System.out.println("--------------------------");
-            if (metrica.equals("P")) {
-                System.out.printf("MeanPrecision@%d = %f%n", cutN, accum / nQueriesWithRelevants);
-            } else if (metrica.equals("R")) {
-                System.out.printf("MeanRecall@%d = %f%n", cutN, accum / nQueriesWithRelevants);
-            } else if (metrica.equals("MAP")) {
-                System.out.printf("MAP@%d = %f%n", cutN, accum / nQueriesWithRelevants);
+            if (accum.length == 1) {
+                System.out.printf("%s@%d = %f%n", meanName(metricas[0]), cuts[0], accum[0] / nQueriesWithRelevants);
+            } else {
+                printTable(queryInt1, results, accum, nQueriesWithRelevants);
             }
 
-            ireader.close();
-            dir.close();
+            System.out.println();
+            latency.print(String.format("Latency (ms) of %s:", fromRunFile != null ? "the run " + fromRunFile
+                    : similarityMode.equals("tfidf") ? "tfidf" : similarityMode + " " + similarityValue));
+
+            if (run != null) {
+                run.close();
+            }
+            if (shards != null) {
+                shards.close();
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
         } catch (ParseException e) {
             e.printStackTrace();
         }
 
     }
 
-    private static NavigableMap<Integer,String> readQueries(String file) {
-        NavigableMap<Integer,String> queries = new TreeMap<>();
-
-        try (Scanner scanner = new Scanner(new File(file))) {
-            int id = 0;
-            String query = "";
-            boolean nextQuery = true;
+    /*
+     * Evaluates the query over the index or, if savedRun is not null, over its
+     * ranking in the run. Then isearcher, nplIds and docIds are null.
+     */
+    private static QueryResult evaluateQuery(IndexSearcher isearcher, int[] nplIds, int[] docIds, RunFile savedRun,
+                                             boolean searchIgnored, int i, String queryText, Query query,
+                                             IntHashSet relevantDocs) throws IOException {
+        Formatter out = new Formatter(new StringBuilder());
+        boolean table = metricas.length * cuts.length > 1;
+
+        /* The table shows the values of every query, so only the rankings are printed before */
+        if (!table || topM > 0) {
+            out.format("%nQUERY %2d => %s%n", i, queryText);
+        }
+        /* A single search up to the deepest cut computes every metric */
+        int limit = topM;
+        for (int cut : cuts) {
+            limit = Math.max(limit, cut);
+        }
 
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
+        if (relevantDocs.size() == 0) {
+            if (!table || topM > 0) {
+                out.format("Ignored. This query has no relevants.%n");
+            }
+            /* The ignored queries are still part of the run */
+            EvalCollector hits = !searchIgnored ? null : EvalCollector.search(isearcher, query, limit,
+                    EvalCollector.relevantDocs(relevantDocs, docIds, nplIds.length), 0);
+            return new QueryResult(out.toString(), hits, null);
+        }
 
-                if (line.equals("/")) {
-                    queries.put(id, query.toLowerCase());
-                    nextQuery = true;
-                    query = "";
-                } else if (nextQuery) {
-                    id = Integer.parseInt(line);
-                    nextQuery = false;
-                } else {
-                    query = query.equals("") ? line : query + " " + line;
-                }
+        long start = System.nanoTime();
+        EvalCollector hits;
+        if (savedRun != null) {
+            hits = savedRun.hits(i, relevantDocs);
+        } else {
+            hits = EvalCollector.search(isearcher, query, limit,
+                    EvalCollector.relevantDocs(relevantDocs, docIds, nplIds.length), relevantDocs.size());
+        }
+        long searched = System.nanoTime();
+        latency.search.record(searched - start);
+
+        /* Show the ranking, without the contents if there is no index */
+        if (!table || topM > 0) {
+            if (savedRun != null) {
+                out.format("%5s%12s%12s%12s%n", "Rank", "DocIDNPL", "Score", "Relevant");
+            } else {
+                out.format("%5s%12s%12s%12s%12s%n", "Rank", "DocIDNPL", "Score", "Relevant", "Contents");
+            }
+        }
+        for (int n=0; n<Math.min(hits.hits(),topM); n++) {
+            if (savedRun != null) {
+                out.format("%5d%12s%12f%12b%n", n+1, hits.doc(n), hits.score(n), hits.isRelevant(n));
+            } else {
+                String content = isearcher.doc(hits.doc(n)).get("Contents");
+                out.format("%5d%12s%12f%12b    %s%n", n+1, nplIds[hits.doc(n)], hits.score(n), hits.isRelevant(n),
+                        content);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
 
-        return queries;
+        float[] values = new float[metricas.length * cuts.length];
+        for (int m = 0; m < metricas.length; m++) {
+            for (int c = 0; c < cuts.length; c++) {
+                values[m * cuts.length + c] = hits.value(metricas[m], cuts[c]);
+            }
+        }
+        if (!table) {
+            out.format("%s@%d = %f%n", queryName(metricas[0]), cuts[0], values[0]);
+        }
+        latency.resolve.record(System.nanoTime() - searched);
+        return new QueryResult(out.toString(), hits, values);
     }
 
-    private static Map<Integer,List<Integer>> readAssessments(String file) {
-        Map<Integer,List<Integer>> assessments = new HashMap<>();
-
-        try (Scanner scanner = new Scanner(new File(file))) {
-            int query = 0;
-            boolean nextQuery = true;
-            List<Integer> docs = new LinkedList<>();
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
-
-                if (line.equals("/")) {
-                    assessments.put(query, docs);
-                    nextQuery = true;
-                    docs = new LinkedList<>();
-                } else if (nextQuery) {
-                    query = Integer.parseInt(line);
-                    nextQuery = false;
-                } else if (!line.equals("")) {  // La query no tiene relevantes
-                    for (String doc : line.split("\\s+")) {
-                        int docID = Integer.parseInt(doc);
-                        docs.add(docID);
-                    }
-                }
+    /* One row per query and a column per metric and cut, with the means in the last row */
+    private static void printTable(int queryInt1, List<Future<QueryResult>> results, float[] accum,
+                                   int nQueriesWithRelevants) throws InterruptedException, ExecutionException {
+        System.out.printf("%6s", "Query");
+        for (String metrica : metricas) {
+            for (int cut : cuts) {
+                System.out.printf("%10s", queryName(metrica) + "@" + cut);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        System.out.println();
+
+        for (int n = 0; n < results.size(); n++) {
+            float[] values = results.get(n).get().values;
+            System.out.printf("%6d", queryInt1 + n);
+            if (values == null) {
+                System.out.printf("%10s%n", "Ignored");
+                continue;
+            }
+            for (float value : values) {
+                System.out.printf("%10.4f", value);
+            }
+            System.out.println();
+        }
+
+        System.out.printf("%6s", "Mean");
+        for (float value : accum) {
+            System.out.printf("%10.4f", value / nQueriesWithRelevants);
+        }
+        System.out.println();
+    }
+
+    /* Name of the metric for a single query */
+    private static String queryName(String metrica) {
+        return metrica.equals("MAP") ? "AP" : metrica;
+    }
 
-        return assessments;
+    /* Name of the metric averaged over the queries */
+    private static String meanName(String metrica) {
+        switch (metrica) {
+            case "P":
+                return "MeanPrecision";
+            case "R":
+                return "MeanRecall";
+            case "RR":
+                return "MRR";
+            case "NDCG":
+                return "MeanNDCG";
+            default:
+                return metrica;
+        }
     }
 
     private static String getProperty(String name) {
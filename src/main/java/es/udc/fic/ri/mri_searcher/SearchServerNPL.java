@@ -0,0 +1,618 @@
+package es.udc.fic.ri.mri_searcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident search service over an index, bound to a local HTTP port. The
+ * reader is kept open by a SearcherManager and refreshed periodically, so the
+ * requests are served by a warm process and see the new commits of IndexNPL.
+ * In near-real-time mode the server owns the writer of the index instead, and
+ * the documents added to it are searchable at the next refresh, without a
+ * commit. The responses are JSON objects.
+ */
+public class SearchServerNPL {
+
+    private final static String CONFIG_FILE = "config.properties";
+    private static Map<String,String> properties;
+
+    private final static int QUEUE_CAPACITY = 256;
+    private final static int DEFAULT_PORT = 8080;
+    private final static int DEFAULT_REFRESH_SECONDS = 5;
+    private final static String[] ALL_METRICS = {"P", "R", "MAP", "NDCG", "RR"};
+
+
+    private static SearcherManager manager;
+    private static ThreadPoolExecutor executor;
+    private static ScheduledExecutorService refresher;
+    private static IndexWriter writer = null;
+    private static String defaultSimilarity;
+    private static TopicSet topics = null;
+    private static final Analyzer analyzer = new StandardAnalyzer();
+
+    /* Id tables of the open segments by their core, so a refresh only reads the new segments */
+    private final static Map<IndexReader.CacheKey,int[][]> SEGMENT_IDS = new ConcurrentHashMap<>();
+
+    /* Searcher of a reader, with the DocIDNPL of its documents resolved per segment */
+    private static class NPLSearcher extends IndexSearcher {
+        private final List<LeafReaderContext> leaves;
+        /* DocIDNPL of every docID, and last docID of every DocIDNPL, of each segment */
+        private final int[][] nplIds;
+        private final int[][] docIds;
+
+        private NPLSearcher(IndexReader reader) throws IOException {
+            super(reader);
+            this.leaves = reader.leaves();
+            this.nplIds = new int[leaves.size()][];
+            this.docIds = new int[leaves.size()][];
+            for (int i = 0; i < leaves.size(); i++) {
+                int[][] tables = segmentIds(leaves.get(i).reader());
+                nplIds[i] = tables[0];
+                docIds[i] = tables[1];
+            }
+        }
+
+        /* The hits are never deleted documents, so the table of the segment is enough */
+        private int nplId(int doc) {
+            int i = ReaderUtil.subIndex(doc, leaves);
+            return nplIds[i][doc - leaves.get(i).docBase];
+        }
+
+        /* A replaced document is deleted, so its live version is the last one of the latest segment */
+        private Bits relevantDocs(IntHashSet relevantIds) {
+            int[] docs = new int[relevantIds.size()];
+            int count = 0;
+            for (int id : relevantIds.toArray()) {
+                for (int i = leaves.size() - 1; i >= 0; i--) {
+                    int doc = id >= 0 && id < docIds[i].length ? docIds[i][id] : -1;
+                    Bits liveDocs = leaves.get(i).reader().getLiveDocs();
+                    if (doc != -1 && (liveDocs == null || liveDocs.get(doc))) {
+                        docs[count++] = leaves.get(i).docBase + doc;
+                        break;
+                    }
+                }
+            }
+            return EvalCollector.sortedDocs(Arrays.copyOf(docs, count), getIndexReader().maxDoc());
+        }
+    }
+
+    public static void main(String[] args) {
+        String usage = "java es.udc.fic.ri.mri_searcher.SearchServerNPL"
+                + " [-indexin INDEX_PATH] [-search jm lambda | dir mu | tfidf] [-port PORT] [-threads N]"
+                + " [-refresh SECONDS] [-nrt [-docs DOCS_FILE]]";
+
+        String indexPath = null;
+        String similarityMode = null;
+        String similarityValue = null;
+        int port = DEFAULT_PORT;
+        int threads = 1;
+        double refreshSeconds = DEFAULT_REFRESH_SECONDS;
+        boolean nrt = false;
+        String docsPath = null;
+
+        /* Check arguments */
+        for (int i = 0; i < args.length; i++) {
+            if ("-indexin".equals(args[i])) {
+                indexPath = args[++i];
+            } else if ("-search".equals(args[i])) {
+                similarityMode = args[++i];
+                if (!similarityMode.equals("tfidf")) {
+                    similarityValue = args[++i];
+                }
+            } else if ("-port".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-refresh".equals(args[i])) {
+                refreshSeconds = Double.parseDouble(args[++i]);
+            } else if ("-nrt".equals(args[i])) {
+                nrt = true;
+            } else if ("-docs".equals(args[i])) {
+                docsPath = args[++i];
+            }
+        }
+
+        if (indexPath == null || similarityMode == null) {
+            System.err.println(usage);
+            System.exit(-1);
+        }
+
+        defaultSimilarity = similarityValue == null ? similarityMode : similarityMode + ":" + similarityValue;
+        try {
+            parseSimilarity(defaultSimilarity);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+
+        if (port < 0 || port > 65535) {
+            System.err.println("Invalid port: " + port);
+            System.exit(-1);
+        }
+
+        if (threads <= 0) {
+            System.err.println("N must be greater than 0: " + threads);
+            System.exit(-1);
+        }
+
+        if (refreshSeconds <= 0) {
+            System.err.println("SECONDS must be greater than 0: " + refreshSeconds);
+            System.exit(-1);
+        }
+
+        if (docsPath != null && !nrt) {
+            System.err.println("-docs requires -nrt");
+            System.exit(-1);
+        }
+
+        try {
+            Directory dir = FSDirectory.open(Paths.get(indexPath));
+
+            /* The topics are optional: without them only /search is available */
+            TopicSet topicSet = null;
+            String queriesFile = getProperty("queries");
+            String assessmentsFile = getProperty("reldocs");
+            if (queriesFile != null && assessmentsFile != null) {
+                topicSet = TopicSet.load(queriesFile, assessmentsFile, getProperty("topicsnapshot"), analyzer);
+            }
+
+            HttpServer server = start(dir, defaultSimilarity, topicSet, port, threads, refreshSeconds, nrt);
+
+            if (docsPath != null) {
+                Path docsFile = Paths.get(docsPath);
+                Thread loader = new Thread(() -> streamDocs(docsFile), "docs-loader");
+                loader.setDaemon(true);
+                loader.start();
+            }
+
+            /* Closing the writer commits the documents added since it was opened */
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    stop(server);
+                    dir.close();
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+
+            System.out.println("Serving index '" + indexPath + "' at http://localhost:" + server.getAddress().getPort()
+                    + " with " + threads + " threads" + (nrt ? " in near-real-time mode" : ""));
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Opens the searchers over the index, and in near-real-time mode its
+     * writer, and serves them at the given port of the local address, or at a
+     * free one if it is 0. The topics can be null.
+     */
+    static HttpServer start(Directory dir, String similarity, TopicSet topicSet, int port, int threads,
+                            double refreshSeconds, boolean nrt) throws IOException {
+        defaultSimilarity = similarity;
+        topics = topicSet;
+        SearcherFactory factory = new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                return new NPLSearcher(reader);
+            }
+        };
+        if (nrt) {
+            IndexWriterConfig config = new IndexWriterConfig(analyzer);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            config.setSimilarity(parseSimilarity(defaultSimilarity));
+            writer = new IndexWriter(dir, config);
+            /* The readers are opened from the writer, so they see the documents before they are committed */
+            manager = new SearcherManager(writer, factory);
+        } else {
+            writer = null;
+            manager = new SearcherManager(dir, factory);
+        }
+
+        long refreshMillis = Math.max(1, Math.round(refreshSeconds * 1000));
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "searcher-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                manager.maybeRefresh();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+
+        /* A full queue makes the accepting thread run the request, which slows down the clients */
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/search", exchange -> handle(exchange, SearchServerNPL::search));
+        server.createContext("/evaluate", exchange -> handle(exchange, SearchServerNPL::evaluate));
+        if (writer != null) {
+            server.createContext("/index", exchange -> {
+                String method = exchange.getRequestMethod();
+                String body = read(exchange.getRequestBody());
+                handle(exchange, (params, json) -> index(method, params, body, json));
+            });
+        }
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    /** Stops serving and closes the searchers, and the writer, which commits its documents */
+    static void stop(HttpServer server) throws IOException, InterruptedException {
+        server.stop(0);
+        executor.shutdown();
+        refresher.shutdown();
+        executor.awaitTermination(DEFAULT_REFRESH_SECONDS, TimeUnit.SECONDS);
+        manager.close();
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private interface Handler {
+        void handle(Map<String,String> params, StringBuilder json) throws IOException, ParseException;
+    }
+
+    /* Runs the handler with the parameters of the URL and sends its JSON, or the error */
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        StringBuilder json = new StringBuilder();
+        int status = 200;
+        try {
+            handler.handle(params(exchange.getRequestURI().getRawQuery()), json);
+        } catch (IllegalArgumentException | ParseException e) {
+            status = 400;
+            json.setLength(0);
+            json.append("{\"error\":").append(quote(e.getMessage())).append('}');
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            status = 500;
+            json.setLength(0);
+            json.append("{\"error\":").append(quote(String.valueOf(e.getMessage()))).append('}');
+        }
+
+        byte[] body = json.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * GET /search?q=TEXT[&n=N][&sim=jm:LAMBDA|dir:MU|tfidf]
+     * Returns the top N (10 by default) documents of the query.
+     */
+    private static void search(Map<String,String> params, StringBuilder json) throws IOException, ParseException {
+        String text = params.get("q");
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("q is required");
+        }
+        int n = intParam(params, "n", 10);
+        String similarity = params.getOrDefault("sim", defaultSimilarity);
+
+        long start = System.nanoTime();
+        Query query = new QueryParser("Contents", analyzer).parse(text);
+        NPLSearcher shared = (NPLSearcher) manager.acquire();
+        try {
+            IndexSearcher isearcher = searcher(shared, similarity);
+            TopDocs topDocs = isearcher.search(query, n);
+
+            json.append("{\"query\":").append(quote(text))
+                    .append(",\"similarity\":").append(quote(similarity))
+                    .append(",\"totalHits\":").append(topDocs.totalHits.value)
+                    .append(",\"hits\":[");
+            ScoreDoc[] hits = topDocs.scoreDocs;
+            for (int i = 0; i < hits.length; i++) {
+                json.append(i == 0 ? "" : ",")
+                        .append("{\"rank\":").append(i + 1)
+                        .append(",\"docIDNPL\":").append(shared.nplId(hits[i].doc))
+                        .append(",\"score\":").append(hits[i].score).append('}');
+            }
+            json.append("],\"tookMillis\":").append(millis(start)).append('}');
+        } finally {
+            manager.release(shared);
+        }
+    }
+
+    /**
+     * GET /evaluate?queries=all|INT1|INT1-INT2[&cut=N[,N...]][&metrica=M[,M...]|all][&sim=...]
+     * Evaluates the queries of the collection as SearchEvalNPL does, with a
+     * single search per query up to the deepest cut.
+     */
+    private static void evaluate(Map<String,String> params, StringBuilder json) throws IOException {
+        if (topics == null) {
+            throw new IllegalArgumentException("queries and reldocs must be specified at config.properties");
+        }
+
+        NavigableMap<Integer,String> queries = topics.queries();
+        String range = params.getOrDefault("queries", "all");
+        int queryInt1 = queries.firstKey();
+        int queryInt2 = queries.lastKey();
+        if (!range.equals("all")) {
+            String[] values = range.split("-");
+            queryInt1 = parseInt("queries", values[0]);
+            queryInt2 = values.length == 2 ? parseInt("queries", values[1]) : queryInt1;
+            if (queryInt1 > queryInt2) {
+                throw new IllegalArgumentException("Invalid query range: " + range);
+            }
+        }
+
+        String[] cutValues = params.getOrDefault("cut", "10").split(",");
+        int[] cuts = new int[cutValues.length];
+        int limit = 0;
+        for (int i = 0; i < cuts.length; i++) {
+            cuts[i] = parseInt("cut", cutValues[i]);
+            if (cuts[i] <= 0) {
+                throw new IllegalArgumentException("cut must be greater than 0: " + cuts[i]);
+            }
+            limit = Math.max(limit, cuts[i]);
+        }
+
+        String metricValue = params.getOrDefault("metrica", "all");
+        String[] metricas = metricValue.equals("all") ? ALL_METRICS : metricValue.split(",");
+        for (String metrica : metricas) {
+            if (!Arrays.asList(ALL_METRICS).contains(metrica)) {
+                throw new IllegalArgumentException("Unknown metrica: " + metrica);
+            }
+        }
+        String similarity = params.getOrDefault("sim", defaultSimilarity);
+
+        long start = System.nanoTime();
+        NPLSearcher shared = (NPLSearcher) manager.acquire();
+        try {
+            IndexSearcher isearcher = searcher(shared, similarity);
+            float[] accum = new float[metricas.length * cuts.length];
+            int nQueriesWithRelevants = 0;
+
+            json.append("{\"similarity\":").append(quote(similarity)).append(",\"queries\":[");
+            for (int id = queryInt1; id <= queryInt2; id++) {
+                IntHashSet relevantIds = topics.assessments().get(id);
+                if (id > queryInt1) {
+                    json.append(',');
+                }
+                json.append("{\"id\":").append(id);
+                if (topics.query(id) == null || relevantIds == null || relevantIds.size() == 0) {
+                    json.append(",\"ignored\":true}");
+                    continue;
+                }
+
+                EvalCollector hits = EvalCollector.search(isearcher, topics.query(id), limit,
+                        shared.relevantDocs(relevantIds),
+                        relevantIds.size());
+                nQueriesWithRelevants++;
+                json.append(",\"values\":{");
+                for (int m = 0; m < metricas.length; m++) {
+                    for (int c = 0; c < cuts.length; c++) {
+                        float value = hits.value(metricas[m], cuts[c]);
+                        accum[m * cuts.length + c] += value;
+                        json.append(m + c == 0 ? "" : ",").append(quote(metricas[m] + "@" + cuts[c]))
+                                .append(':').append(number(value));
+                    }
+                }
+                json.append("}}");
+            }
+
+            json.append("],\"mean\":{");
+            for (int m = 0; m < metricas.length; m++) {
+                for (int c = 0; c < cuts.length; c++) {
+                    json.append(m + c == 0 ? "" : ",").append(quote(metricas[m] + "@" + cuts[c])).append(':')
+                            .append(number(accum[m * cuts.length + c] / nQueriesWithRelevants));
+                }
+            }
+            json.append("},\"tookMillis\":").append(millis(start)).append('}');
+        } finally {
+            manager.release(shared);
+        }
+    }
+
+    /**
+     * POST /index?id=DOCIDNPL with the contents of the document as body
+     * Adds the document to the open writer, replacing the one with the same
+     * DocIDNPL. It is searchable after the next refresh.
+     */
+    private static void index(String method, Map<String,String> params, String body, StringBuilder json)
+            throws IOException {
+        if (!"POST".equals(method)) {
+            throw new IllegalArgumentException("/index requires POST");
+        }
+        if (params.get("id") == null) {
+            throw new IllegalArgumentException("id is required");
+        }
+        int docId = parseInt("id", params.get("id"));
+        if (docId < 0) {
+            throw new IllegalArgumentException("id must be greater or equal than 0: " + docId);
+        }
+        String id = String.valueOf(docId);
+        if (body.trim().isEmpty()) {
+            throw new IllegalArgumentException("The contents of the document are required");
+        }
+
+        long start = System.nanoTime();
+        IndexNPL.updateDoc(writer, id, body);
+        json.append("{\"docIDNPL\":").append(id).append(",\"tookMillis\":").append(millis(start)).append('}');
+    }
+
+    /* Adds the records of the file to the open writer while the requests are served */
+    private static void streamDocs(Path file) {
+        long start = System.nanoTime();
+        int count = 0;
+        try (NPLParser parser = new NPLParser(file)) {
+            for (NPLParser.Record record = parser.next(); record != null; record = parser.next()) {
+                IndexNPL.updateDoc(writer, record.id(), record.text());
+                count++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Added " + count + " documents of '" + file + "' in " + millis(start) + " ms");
+    }
+
+    /* Reuses the tables of a segment while its core is open, and drops them when it is closed */
+    private static int[][] segmentIds(LeafReader leaf) throws IOException {
+        IndexReader.CacheHelper cacheHelper = leaf.getCoreCacheHelper();
+        int[][] tables = cacheHelper == null ? null : SEGMENT_IDS.get(cacheHelper.getKey());
+        if (tables == null) {
+            int[] ids = NPLIds.segment(leaf);
+            tables = new int[][] {ids, NPLIds.docIds(ids)};
+            if (cacheHelper != null && SEGMENT_IDS.putIfAbsent(cacheHelper.getKey(), tables) == null) {
+                cacheHelper.addClosedListener(SEGMENT_IDS::remove);
+            }
+        }
+        return tables;
+    }
+
+    /* The acquired searcher is shared, so a request with its own similarity gets its own searcher */
+    private static IndexSearcher searcher(NPLSearcher shared, String similarity) {
+        IndexSearcher isearcher = new IndexSearcher(shared.getIndexReader());
+        isearcher.setSimilarity(parseSimilarity(similarity));
+        return isearcher;
+    }
+
+    /* Parses jm:LAMBDA, dir:MU or tfidf */
+    private static Similarity parseSimilarity(String similarity) {
+        String[] params = similarity.split(":");
+        if (params[0].equals("tfidf") && params.length == 1) {
+            return IndexNPL.createSimilarity(params);
+        } else if ((params[0].equals("jm") || params[0].equals("dir")) && params.length == 2) {
+            try {
+                Float.parseFloat(params[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown similarity: " + similarity);
+            }
+            return IndexNPL.createSimilarity(params);
+        }
+        throw new IllegalArgumentException("Unknown similarity: " + similarity);
+    }
+
+    private static Map<String,String> params(String rawQuery) throws UnsupportedEncodingException {
+        Map<String,String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static int intParam(Map<String,String> params, String name, int defaultValue) {
+        int value = params.containsKey(name) ? parseInt(name, params.get(name)) : defaultValue;
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be greater than 0: " + value);
+        }
+        return value;
+    }
+
+    /* The message of NumberFormatException does not say which parameter was wrong */
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer: " + value);
+        }
+    }
+
+    private static String number(float value) {
+        return Float.isNaN(value) || Float.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    private static long millis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String getProperty(String name) {
+        if (properties == null) {
+            ClassLoader classLoader = SearchServerNPL.class.getClassLoader();
+            InputStream inputStream = classLoader.getResourceAsStream(CONFIG_FILE);
+            Properties properties = new Properties();
+            try {
+                properties.load(inputStream);
+                inputStream.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            Map<String,String> values = new HashMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                values.put(key, properties.getProperty(key));
+            }
+            SearchServerNPL.properties = values;
+        }
+        return properties.get(name);
+    }
+}
@@ -0,0 +1,311 @@
+package es.udc.fic.ri.mri_searcher;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Queries, already parsed, and relevance assessments of the collection.
+ *
+ * When a snapshot file is given, the analyzed queries and the assessments are
+ * written to it in a binary layout the first time, and memory-mapped on the
+ * following runs instead of reading and parsing the text files again. The
+ * snapshot records the size and modification time of both text files and the
+ * analyzer it was built with, and it is rebuilt as soon as any of them changes.
+ */
+public class TopicSet {
+
+    private final static int MAGIC = 0x4E504C54;  // "NPLT"
+    private final static int VERSION = 1;
+
+    /* Node types of the encoded queries */
+    private final static byte TERM = 'T';
+    private final static byte BOOLEAN = 'B';
+    private final static byte BOOST = 'S';
+    private final static byte REPARSE = 'P';
+
+    private final NavigableMap<Integer,String> queries;
+    private final Map<Integer,Query> parsedQueries;
+    private final Map<Integer,IntHashSet> assessments;
+    private final Map<Integer,Long> parseNanos;
+
+    private TopicSet(NavigableMap<Integer,String> queries, Map<Integer,Query> parsedQueries,
+                     Map<Integer,IntHashSet> assessments, Map<Integer,Long> parseNanos) {
+        this.queries = queries;
+        this.parsedQueries = parsedQueries;
+        this.assessments = assessments;
+        this.parseNanos = parseNanos;
+    }
+
+    /**
+     * Loads the topics from the snapshot if it is up to date, otherwise parses
+     * the text files and, if snapshotFile is not null, writes the snapshot.
+     */
+    public static TopicSet load(String queriesFile, String assessmentsFile, String snapshotFile,
+                                Analyzer analyzer) throws IOException, ParseException {
+        QueryParser parser = new QueryParser("Contents", analyzer);
+        String fingerprint = fingerprint(queriesFile, assessmentsFile, analyzer);
+
+        if (snapshotFile != null && Files.isReadable(Paths.get(snapshotFile))) {
+            TopicSet topics = read(Paths.get(snapshotFile), fingerprint, parser);
+            if (topics != null) {
+                return topics;
+            }
+        }
+
+        NavigableMap<Integer,String> queries = NPLTopics.readQueries(queriesFile);
+        Map<Integer,Query> parsedQueries = new HashMap<>();
+        Map<Integer,Long> parseNanos = new HashMap<>();
+        for (Map.Entry<Integer,String> entry : queries.entrySet()) {
+            long start = System.nanoTime();
+            parsedQueries.put(entry.getKey(), parser.parse(entry.getValue()));
+            parseNanos.put(entry.getKey(), System.nanoTime() - start);
+        }
+        TopicSet topics = new TopicSet(queries, parsedQueries, NPLTopics.readAssessments(assessmentsFile),
+                parseNanos);
+
+        if (snapshotFile != null) {
+            topics.write(Paths.get(snapshotFile), fingerprint);
+        }
+        return topics;
+    }
+
+    /** Returns the lowercased text of every query, sorted by its id */
+    public NavigableMap<Integer,String> queries() {
+        return queries;
+    }
+
+    public Query query(int id) {
+        return parsedQueries.get(id);
+    }
+
+    public Map<Integer,IntHashSet> assessments() {
+        return assessments;
+    }
+
+    /** Time spent parsing the query, or decoding it from the snapshot */
+    public long parseNanos(int id) {
+        return parseNanos.getOrDefault(id, 0L);
+    }
+
+    /** Returns n parsed queries spread evenly over the ids, or all of them if there are fewer */
+    public List<Query> sample(int n) {
+        List<Query> all = new ArrayList<>();
+        for (int id : queries.keySet()) {
+            if (parsedQueries.get(id) != null) {
+                all.add(parsedQueries.get(id));
+            }
+        }
+        if (n >= all.size()) {
+            return all;
+        }
+
+        List<Query> sample = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            sample.add(all.get((int) ((long) i * all.size() / n)));
+        }
+        return sample;
+    }
+
+    /* Identifies the sources and the analyzer the snapshot, or any result computed from them, is built from */
+    static String fingerprint(String queriesFile, String assessmentsFile, Analyzer analyzer) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (String file : new String[] {queriesFile, assessmentsFile}) {
+            File source = new File(file).getAbsoluteFile();
+            fingerprint.append(source.getPath()).append(':').append(source.length())
+                    .append(':').append(source.lastModified()).append('|');
+        }
+
+        fingerprint.append(analyzer.getClass().getName()).append(':').append(Version.LATEST);
+        if (analyzer instanceof StopwordAnalyzerBase) {
+            List<String> stopwords = new ArrayList<>();
+            for (Object stopword : ((StopwordAnalyzerBase) analyzer).getStopwordSet()) {
+                stopwords.add(new String((char[]) stopword));
+            }
+            Collections.sort(stopwords);
+            fingerprint.append(':').append(stopwords.hashCode());
+        }
+        return fingerprint.toString();
+    }
+
+    private void write(Path file, String fingerprint) throws IOException {
+        Path tmp = Paths.get(file + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, fingerprint);
+
+            out.writeInt(queries.size());
+            for (Map.Entry<Integer,String> entry : queries.entrySet()) {
+                out.writeInt(entry.getKey());
+                writeString(out, entry.getValue());
+                Query query = parsedQueries.get(entry.getKey());
+                if (isEncodable(query)) {
+                    writeQuery(out, query);
+                } else {
+                    out.writeByte(REPARSE);
+                }
+            }
+
+            out.writeInt(assessments.size());
+            for (Map.Entry<Integer,IntHashSet> entry : assessments.entrySet()) {
+                int[] docs = entry.getValue().toArray();
+                out.writeInt(entry.getKey());
+                out.writeInt(docs.length);
+                for (int doc : docs) {
+                    out.writeInt(doc);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* Only the queries built by the classic QueryParser from plain words are encoded */
+    private static boolean isEncodable(Query query) {
+        if (query instanceof TermQuery) {
+            return true;
+        } else if (query instanceof BoostQuery) {
+            return isEncodable(((BoostQuery) query).getQuery());
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : (BooleanQuery) query) {
+                if (!isEncodable(clause.getQuery())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void writeQuery(DataOutputStream out, Query query) throws IOException {
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            out.writeByte(TERM);
+            writeString(out, term.field());
+            out.writeInt(term.bytes().length);
+            out.write(term.bytes().bytes, term.bytes().offset, term.bytes().length);
+        } else if (query instanceof BoostQuery) {
+            out.writeByte(BOOST);
+            out.writeFloat(((BoostQuery) query).getBoost());
+            writeQuery(out, ((BoostQuery) query).getQuery());
+        } else {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            out.writeByte(BOOLEAN);
+            out.writeInt(booleanQuery.getMinimumNumberShouldMatch());
+            out.writeInt(booleanQuery.clauses().size());
+            for (BooleanClause clause : booleanQuery) {
+                out.writeByte(clause.getOccur().ordinal());
+                writeQuery(out, clause.getQuery());
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /* Maps the snapshot, returning null if it is not valid for the current sources or cannot be read */
+    private static TopicSet read(Path file, String fingerprint, QueryParser parser) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION
+                    || !readString(in).equals(fingerprint)) {
+                return null;
+            }
+
+            NavigableMap<Integer,String> queries = new TreeMap<>();
+            Map<Integer,Query> parsedQueries = new HashMap<>();
+            Map<Integer,Long> parseNanos = new HashMap<>();
+            int nQueries = in.getInt();
+            for (int i = 0; i < nQueries; i++) {
+                int id = in.getInt();
+                String text = readString(in);
+                long start = System.nanoTime();
+                Query query = readQuery(in);
+                queries.put(id, text);
+                parsedQueries.put(id, query == null ? parser.parse(text) : query);
+                parseNanos.put(id, System.nanoTime() - start);
+            }
+
+            Map<Integer,IntHashSet> assessments = new HashMap<>();
+            int nAssessments = in.getInt();
+            for (int i = 0; i < nAssessments; i++) {
+                int id = in.getInt();
+                int nDocs = length(in, Integer.BYTES);
+                IntHashSet relevantDocs = new IntHashSet(nDocs);
+                for (int n = 0; n < nDocs; n++) {
+                    relevantDocs.add(in.getInt());
+                }
+                assessments.put(id, relevantDocs);
+            }
+
+            return new TopicSet(queries, parsedQueries, assessments, parseNanos);
+        } catch (Exception e) {
+            return null;  // Truncated, corrupted or unreadable, so it is built again
+        }
+    }
+
+    /* Returns null for the queries that have to be parsed again */
+    private static Query readQuery(ByteBuffer in) {
+        byte type = in.get();
+        if (type == TERM) {
+            String field = readString(in);
+            byte[] bytes = new byte[length(in, 1)];
+            in.get(bytes);
+            return new TermQuery(new Term(field, new BytesRef(bytes)));
+        } else if (type == BOOST) {
+            float boost = in.getFloat();
+            return new BoostQuery(readQuery(in), boost);
+        } else if (type == BOOLEAN) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(in.getInt());
+            int nClauses = in.getInt();
+            for (int i = 0; i < nClauses; i++) {
+                BooleanClause.Occur occur = BooleanClause.Occur.values()[in.get()];
+                builder.add(readQuery(in), occur);
+            }
+            return builder.build();
+        }
+        return null;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[length(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Reads a number of elements, checking that they fit in what is left so a corrupted one allocates nothing */
+    private static int length(ByteBuffer in, int elementBytes) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / elementBytes) {
+            throw new IllegalStateException("Invalid length in the snapshot: " + length);
+        }
+        return length;
+    }
+}
@@ -1,19 +1,13 @@
 package es.udc.fic.ri.mri_searcher;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
@@ -21,12 +15,20 @@ import java.math.RoundingMode;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 public class TrainingTestNPL {
 
     private final static String CONFIG_FILE = "config.properties";
     private static Map<String,String> properties;
 
+    private final static float MIN_LAMBDA = 0.0001f;
+
     private static String evalMode = null;
     private static int trainInt1= 0, trainInt2 = 0;
     private static int testInt1 = 0, testInt2 = 0;
@@ -34,11 +36,56 @@ public class TrainingTestNPL {
     private static String metrica = null;
     private static String indexPath = null;
     private static String outputFile = null;
+    private static String runFile = null;
+    private static String runTag = null;
+    private static int[] nplIds = null;
+    private static TopicSet topics = null;
+    private static Map<Integer,Bits> relevantDocs = null;
+    private static String dirMode = "fs";
+    private static int warmup = 0;
+    private static int threads = 1;
+    private static String engine = "search";
+    private static int gridSize = 0;
+    private static int parameterDecimals = 1;
+    private static LMSweep sweep = null;
+    private static Map<Integer,LMSweep.Statistics> sweepStats = null;
+    private static String optimizer = "grid";
+    private static double tolerance = 0;
+    private static int budget = 0;
+    private static List<Float> trainParameters = null;
+    private static List<Float> trainResults = null;
+    private static List<LatencyHistogram.Phases> trainLatencies = null;
+    private static int folds = 0;
+    private static String storeFile = null;
+    private static ResultStore store = null;
+
+    /* Best parameter of the training folds and the results of the test fold */
+    private static class Fold {
+        private final int first;
+        private final int last;
+        private final float parameter;
+        private final float trainAverage;
+        private final float[] measures;
+        private final EvalCollector[] hits;
+
+        private Fold(int first, int last, float parameter, float trainAverage) {
+            this.first = first;
+            this.last = last;
+            this.parameter = parameter;
+            this.trainAverage = trainAverage;
+            this.measures = new float[last - first + 1];
+            this.hits = new EvalCollector[last - first + 1];
+        }
+    }
 
     public static void main(String[] args) {
         String usage = "java es.udc.fic.ri.mri_searcher.TrainingTestNPL"
-                + " [-evaljm INT1-INT2 INT3-INT4| -evaldir INT1-INT2 INT3-INT4] [-cut N] "
-                + " [-metrica P | R | MAP] [-indexin -INDEX_PATH] [-outfile OUTPUT_FILE]";
+                + " [-evaljm INT1-INT2 INT3-INT4| -evaldir INT1-INT2 INT3-INT4 | -kfoldjm K INT1-INT2"
+                + " | -kfolddir K INT1-INT2] [-cut N] "
+                + " [-metrica P | R | MAP | NDCG | RR] [-indexin INDEX_PATH[,INDEX_PATH...]] [-outfile OUTPUT_FILE]"
+                + " [-run RUN_FILE [-tag TAG]] [-dirmode fs | mmap | mmap-preload | heap | offheap] [-warmup W]"
+                + " [-threads N] [-engine search | sweep] [-gridsize G]"
+                + " [-optimizer grid | golden [-tolerance T] [-budget B]] [-store STORE_FILE]";
 
         /* Check arguments */
         for (int i = 0; i < args.length; i++) {
@@ -52,6 +99,13 @@ public class TrainingTestNPL {
                 String[] testRange = args[++i].split("-");
                 testInt1 = Integer.parseInt(testRange[0]);
                 testInt2 = Integer.parseInt(testRange[1]);
+            } else if ("-kfoldjm".equals(args[i]) || "-kfolddir".equals(args[i])) {
+                evalMode = args[i].equals("-kfoldjm") ? "jm" : "dir";
+                folds = Integer.parseInt(args[++i]);
+
+                String[] range = args[++i].split("-");
+                trainInt1 = Integer.parseInt(range[0]);
+                trainInt2 = Integer.parseInt(range[1]);
             } else if ("-indexin".equals(args[i])) {
                 indexPath = args[++i];
             } else if ("-cut".equals(args[i])) {
@@ -60,6 +114,28 @@ public class TrainingTestNPL {
                 metrica = args[++i];
             } else if ("-outfile".equals(args[i])) {
                 outputFile = args[++i];
+            } else if ("-run".equals(args[i])) {
+                runFile = args[++i];
+            } else if ("-tag".equals(args[i])) {
+                runTag = args[++i];
+            } else if ("-dirmode".equals(args[i])) {
+                dirMode = args[++i];
+            } else if ("-warmup".equals(args[i])) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-engine".equals(args[i])) {
+                engine = args[++i];
+            } else if ("-gridsize".equals(args[i])) {
+                gridSize = Integer.parseInt(args[++i]);
+            } else if ("-optimizer".equals(args[i])) {
+                optimizer = args[++i];
+            } else if ("-tolerance".equals(args[i])) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else if ("-budget".equals(args[i])) {
+                budget = Integer.parseInt(args[++i]);
+            } else if ("-store".equals(args[i])) {
+                storeFile = args[++i];
             }
         }
 
@@ -96,33 +172,135 @@ public class TrainingTestNPL {
             System.exit(-1);
         }
 
-        if (!(metrica.equals("P") || metrica.equals("R") || metrica.equals("MAP"))) {
+        if (folds != 0 && testInt2 != 0) {
+            System.err.println("-kfoldjm and -kfolddir are exclusive with -evaljm and -evaldir");
+            System.exit(-1);
+        }
+
+        if (folds != 0 && (folds < 2 || folds > trainInt2 - trainInt1 + 1)) {
+            System.err.println("K must be between 2 and the number of queries: " + folds);
+            System.exit(-1);
+        }
+
+        if (!(metrica.equals("P") || metrica.equals("R") || metrica.equals("MAP") || metrica.equals("NDCG")
+                || metrica.equals("RR"))) {
             System.err.println("Unknown metrica: " + metrica);
             System.exit(-1);
         }
 
+        if (!IndexShards.DIR_MODES.contains(dirMode)) {
+            System.err.println("Unknown dirmode: " + dirMode);
+            System.exit(-1);
+        }
+
+        if (warmup < 0) {
+            System.err.println("W must be 0 or greater: " + warmup);
+            System.exit(-1);
+        }
+
+        if (threads <= 0) {
+            System.err.println("N must be greater than 0: " + threads);
+            System.exit(-1);
+        }
+
+        if (!(engine.equals("search") || engine.equals("sweep"))) {
+            System.err.println("Unknown engine: " + engine);
+            System.exit(-1);
+        }
+
+        /* The grid of Dirichlet goes from 0 to 5000, so it needs two values at least */
+        if (gridSize == 0) {
+            gridSize = evalMode.equals("jm") ? 10 : 11;
+        } else if (gridSize < (evalMode.equals("jm") ? 1 : 2)) {
+            System.err.println("G must be greater than " + (evalMode.equals("jm") ? 0 : 1) + ": " + gridSize);
+            System.exit(-1);
+        }
+
+        /* Lambda must be in (0, 1] and mu not negative */
+        List<Float> grid = grid();
+        if (evalMode.equals("jm") ? grid.get(0) <= 0 || grid.get(grid.size() - 1) > 1 : grid.get(0) < 0) {
+            System.err.println("G gives parameters out of the range of the model: " + gridSize);
+            System.exit(-1);
+        }
+
+        if (!(optimizer.equals("grid") || optimizer.equals("golden"))) {
+            System.err.println("Unknown optimizer: " + optimizer);
+            System.exit(-1);
+        }
+
+        if (folds != 0 && optimizer.equals("golden")) {
+            System.err.println("-optimizer golden cannot be used with -kfoldjm or -kfolddir");
+            System.exit(-1);
+        }
+
+        if (tolerance == 0) {
+            tolerance = evalMode.equals("jm") ? 0.01 : 10;
+        } else if (tolerance < 0) {
+            System.err.println("T must be greater than 0: " + tolerance);
+            System.exit(-1);
+        }
+
+        /* The grid is always evaluated, the rest of the budget refines it */
+        if (budget == 0) {
+            budget = gridSize + 10;
+        } else if (budget < gridSize) {
+            System.err.println("B must be at least G: " + budget);
+            System.exit(-1);
+        }
+
         /* Training and test computation */
         try {
-            Directory dir = FSDirectory.open(Paths.get(indexPath));
-            DirectoryReader ireader = DirectoryReader.open(dir);
-            IndexSearcher isearcher = new IndexSearcher(ireader);
-            QueryParser parser = new QueryParser("Contents", new StandardAnalyzer());
+            IndexShards shards = IndexShards.open(indexPath, dirMode);
+            IndexSearcher isearcher = shards.newSearcher();
+            nplIds = NPLIds.load(shards.reader());
+            int[] docIds = NPLIds.docIds(nplIds);
+            topics = TopicSet.load(QUERIES_FILE, ASSESSMENTS_FILE, getProperty("topicsnapshot"),
+                    new StandardAnalyzer());
 
             Map<Integer,Query> queries = new HashMap<>();
-            for (Map.Entry<Integer,String> entry : readQueries(QUERIES_FILE).entrySet()) {
-                Query query = parser.parse(entry.getValue());
-                queries.put(entry.getKey(), query);
+            for (int id : topics.queries().keySet()) {
+                queries.put(id, topics.query(id));
             }
 
-            Map<Integer,List<Integer>> assessments = readAssessments(ASSESSMENTS_FILE);
+            Map<Integer,IntHashSet> assessments = topics.assessments();
+
+            /* The relevant docIDs of every query are the same for every parameter */
+            relevantDocs = new HashMap<>();
+            for (Map.Entry<Integer,IntHashSet> entry : assessments.entrySet()) {
+                relevantDocs.put(entry.getKey(), EvalCollector.relevantDocs(entry.getValue(), docIds, nplIds.length));
+            }
+
+            /* The measures stored are valid while neither the index nor the topics change */
+            if (storeFile != null) {
+                store = ResultStore.open(storeFile, shards.commits() + "|"
+                        + TopicSet.fingerprint(QUERIES_FILE, ASSESSMENTS_FILE, new StandardAnalyzer()));
+            }
+
+            /* The scoring code is the same for every parameter of the grid, so any of them warms it up */
+            if (warmup > 0) {
+                isearcher.setSimilarity(evalMode.equals("jm") ? new LMJelinekMercerSimilarity(0.5f)
+                        : new LMDirichletSimilarity(500));
+                shards.warmUp(isearcher, topics.sample(warmup), cutN);
+            }
 
             /* Train and test */
-            float bestParameterLM = train(isearcher, queries, assessments);
-            test(isearcher, queries, assessments, bestParameterLM);
+            if (folds > 0) {
+                crossValidate(shards, queries, assessments);
+            } else {
+                float bestParameterLM = train(shards, queries, assessments);
+                test(isearcher, queries, assessments, bestParameterLM);
+            }
+
+            if (store != null) {
+                System.out.printf("%nResult store: %d measures stored, %d reused, %d computed%n", store.stored(),
+                        store.reused(), store.computed());
+            }
 
             /* Close resources */
-            ireader.close();
-            dir.close();
+            if (store != null) {
+                store.close();
+            }
+            shards.close();
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -130,15 +308,10 @@ public class TrainingTestNPL {
 
     }
 
-    private static float train(IndexSearcher isearcher, Map<Integer,Query> queries, Map<Integer,List<Integer>> assessments) throws IOException{
-        float increment = evalMode.equals("jm") ? 0.1f : 500;
-
-        List<Float> increments = new ArrayList<>();
-        for (int i=0; i<(evalMode.equals("jm") ? 10 : 11); i++) {
-            float parameter = i*increment + (evalMode.equals("jm") ? 0.1f : 0);
-            parameter = BigDecimal.valueOf(parameter).setScale(2, RoundingMode.HALF_UP).floatValue();
-            increments.add(parameter);
-        }
+    private static float train(IndexShards shards, Map<Integer,Query> queries, Map<Integer,IntHashSet> assessments)
+            throws IOException, InterruptedException, ExecutionException {
+        List<Float> increments = grid();
+        long sweepNanos = collectSweep(shards, queries, assessments);
 
         System.out.printf("Results of %s@%d in training (evalMode=%s):%n", metrica, cutN, evalMode);
 
@@ -148,28 +321,190 @@ public class TrainingTestNPL {
         }
         System.out.printf("%8s%n", "avg");
 
-        List<Float> trainResults = new ArrayList<>();
-        for (float parameterLM : increments) {
-            if (evalMode.equals("jm")) {
-                isearcher.setSimilarity(new LMJelinekMercerSimilarity(parameterLM));
-            } else {
-                isearcher.setSimilarity(new LMDirichletSimilarity(parameterLM));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, increments.size()));
+        trainParameters = new ArrayList<>();
+        trainResults = new ArrayList<>();
+        trainLatencies = new ArrayList<>();
+        try {
+            evaluate(executor, shards, increments, queries, assessments);
+            if (optimizer.equals("golden")) {
+                refine(executor, shards, increments, queries, assessments);
             }
-            System.out.printf("%6.1f", parameterLM);
-            float average = queryAverageValue(isearcher, queries, trainInt1, trainInt2, assessments);
-            trainResults.add(average);
-            System.out.printf("%8.4f%n", average);
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println();
+
+        System.out.println("Latency (ms) in training:");
+        System.out.printf("%6s%36s%36s%n", "", "search", "resolve");
+        System.out.printf("%6s%s%s%n", "", LatencyHistogram.header(), LatencyHistogram.header());
+        for (int n = 0; n < trainParameters.size(); n++) {
+            System.out.printf("%6" + format(trainParameters.get(n)).substring(1) + "%s%s%n", trainParameters.get(n),
+                    trainLatencies.get(n).search.summary(), trainLatencies.get(n).resolve.summary());
         }
         System.out.println();
 
-        float bestParameterLM = increments.get(trainResults.indexOf(Collections.max(trainResults)));
-        return bestParameterLM;
+        if (sweepStats != null) {
+            System.out.printf("Postings of %d training queries read once in %.3f ms%n%n", sweepStats.size(),
+                    sweepNanos / 1e6);
+        }
+
+        return trainParameters.get(best());
+    }
+
+    /*
+     * Lambda goes from 1/G to 1 and mu from 0 to 5000. The values are rounded at
+     * a tenth of the step, 2 decimals at least, so a fine grid keeps them apart,
+     * and printed with the decimals they need. Values that are still equal as a
+     * float are evaluated once.
+     */
+    private static List<Float> grid() {
+        double increment = evalMode.equals("jm") ? 1d / gridSize : 5000d / (gridSize - 1);
+        int scale = Math.max(2, (int) Math.ceil(-Math.log10(increment)) + 1);
+
+        Set<Float> increments = new LinkedHashSet<>();
+        int decimals = 1;
+        for (int i=0; i<gridSize; i++) {
+            BigDecimal parameter = BigDecimal.valueOf(i*increment + (evalMode.equals("jm") ? increment : 0))
+                    .setScale(scale, RoundingMode.HALF_UP).stripTrailingZeros();
+            increments.add(parameter.floatValue());
+            decimals = Math.max(decimals, parameter.scale());
+        }
+        parameterDecimals = decimals;
+        return new ArrayList<>(increments);
+    }
+
+    /* The postings of every training query are read once for the whole grid */
+    private static long collectSweep(IndexShards shards, Map<Integer,Query> queries,
+                                     Map<Integer,IntHashSet> assessments) throws IOException {
+        long start = System.nanoTime();
+        if (engine.equals("sweep")) {
+            sweep = new LMSweep(shards.newSearcher(), "Contents", evalMode);
+            sweepStats = new HashMap<>();
+            for (int i=trainInt1; i<=trainInt2; i++) {
+                LMSweep.Statistics stats = assessments.get(i).size() == 0 ? null : sweep.collect(queries.get(i));
+                if (stats != null) {
+                    sweepStats.put(i, stats);
+                }
+            }
+        }
+        return System.nanoTime() - start;
     }
 
-    private static void test(IndexSearcher isearcher, Map<Integer,Query> queries, Map<Integer,List<Integer>> assessments, float parameter) throws IOException {
-        System.out.printf("Testing with a %s value of %.1f%n",
+    /*
+     * The parameters are evaluated concurrently, each one with its own searcher
+     * over the shared reader, and the rows are printed in the order given
+     */
+    private static void evaluate(ExecutorService executor, IndexShards shards, List<Float> parameters,
+                                 Map<Integer,Query> queries, Map<Integer,IntHashSet> assessments)
+            throws IOException, InterruptedException, ExecutionException {
+        List<StringBuilder> rows = new ArrayList<>();
+        List<Future<Float>> averages = new ArrayList<>();
+        for (float parameterLM : parameters) {
+            LatencyHistogram.Phases latency = new LatencyHistogram.Phases();
+            StringBuilder row = new StringBuilder(String.format("%6" + format(parameterLM).substring(1), parameterLM));
+            trainLatencies.add(latency);
+            rows.add(row);
+            averages.add(executor.submit(() -> queryAverageValue(searcher(shards, parameterLM), parameterLM, queries,
+                    trainInt1, trainInt2, assessments, latency, row)));
+        }
+
+        for (int n = 0; n < parameters.size(); n++) {
+            float average = averages.get(n).get();
+            trainParameters.add(parameters.get(n));
+            trainResults.add(average);
+            System.out.printf("%s%8.4f%n", rows.get(n), average);
+            if (store != null) {
+                store.flush();
+            }
+        }
+    }
+
+    /*
+     * Golden-section search of the maximum between the neighbours of the best
+     * value of the grid, until the interval is narrower than the tolerance or
+     * the budget of evaluations is spent. On ties the lower part is kept.
+     */
+    private static void refine(ExecutorService executor, IndexShards shards, List<Float> grid,
+                               Map<Integer,Query> queries, Map<Integer,IntHashSet> assessments)
+            throws IOException, InterruptedException, ExecutionException {
+        final double invPhi = (Math.sqrt(5) - 1) / 2;
+        int best = best();
+        double a = best > 0 ? grid.get(best - 1) : 0;
+        double b = best < grid.size() - 1 ? grid.get(best + 1) : grid.get(best);
+
+        if (b - a <= tolerance || trainParameters.size() + 2 > budget) {
+            System.out.printf("Golden-section search skipped: %d evaluations, interval [" + format((float) a) + ", "
+                    + format((float) b) + "] %s%n", trainParameters.size(), a, b,
+                    b - a <= tolerance ? "within the tolerance" : "and no budget left");
+            return;
+        }
+        float c = roundParameter(b - invPhi * (b - a));
+        float d = roundParameter(a + invPhi * (b - a));
+        evaluate(executor, shards, Arrays.asList(c, d), queries, assessments);
+        float fc = trainResults.get(trainResults.size() - 2);
+        float fd = trainResults.get(trainResults.size() - 1);
+
+        while (b - a > tolerance && trainParameters.size() < budget) {
+            if (fc >= fd) {
+                b = d;
+                d = c;
+                fd = fc;
+                c = roundParameter(b - invPhi * (b - a));
+                evaluate(executor, shards, Collections.singletonList(c), queries, assessments);
+                fc = trainResults.get(trainResults.size() - 1);
+            } else {
+                a = c;
+                c = d;
+                fc = fd;
+                d = roundParameter(a + invPhi * (b - a));
+                evaluate(executor, shards, Collections.singletonList(d), queries, assessments);
+                fd = trainResults.get(trainResults.size() - 1);
+            }
+        }
+        System.out.printf("Golden-section search: %d evaluations, final interval [" + format((float) a) + ", "
+                + format((float) b) + "]%n", trainParameters.size(), a, b);
+    }
+
+    /*
+     * The values are printed with the decimals of the grid, and the values of
+     * lambda refined by the golden-section search that need more with the 4
+     * they are rounded to
+     */
+    private static String format(float parameter) {
+        int scale = new BigDecimal(Float.toString(parameter)).stripTrailingZeros().scale();
+        return scale > parameterDecimals ? "%.4f" : "%." + parameterDecimals + "f";
+    }
+
+    /* Index of the best parameter evaluated, the first one on ties */
+    private static int best() {
+        int best = 0;
+        for (int n = 1; n < trainResults.size(); n++) {
+            if (Float.compare(trainResults.get(n), trainResults.get(best)) > 0) {
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Lambda is rounded to 4 decimals and mu to 1, the precision they are printed
+     * with. Lambda must be greater than 0, so a probe next to the lower bound of
+     * the search is never rounded below 0.0001
+     */
+    private static float roundParameter(double parameter) {
+        if (evalMode.equals("jm")) {
+            return Math.max(MIN_LAMBDA, BigDecimal.valueOf(parameter).setScale(4, RoundingMode.HALF_UP).floatValue());
+        }
+        return BigDecimal.valueOf(parameter).setScale(1, RoundingMode.HALF_UP).floatValue();
+    }
+
+    private static void test(IndexSearcher isearcher, Map<Integer,Query> queries, Map<Integer,IntHashSet> assessments, float parameter) throws IOException {
+        System.out.printf("Testing with a %s value of " + format(parameter) + "%n",
                 evalMode.equals("jm") ? "lambda" : "nu", parameter);
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile))) {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile));
+             RunWriter run = runFile == null ? null
+                     : new RunWriter(runFile, runTag != null ? runTag : evalMode + parameter)) {
 
             if (evalMode.equals("jm")) {
                 isearcher.setSimilarity(new LMJelinekMercerSimilarity(parameter));
@@ -178,125 +513,233 @@ public class TrainingTestNPL {
             }
 
             float accum = 0;
+            LatencyHistogram.Phases latency = new LatencyHistogram.Phases();
             for (int i=testInt1; i<=testInt2; i++) {
-                float measure = queryValue(isearcher, queries.get(i), assessments.get(i));
+                latency.parse.record(topics.parseNanos(i));
+                float measure;
+                if (run != null) {
+                    /* The ranking is written, so it is searched even if the measure is stored */
+                    long start = System.nanoTime();
+                    EvalCollector hits = search(isearcher, parameter, i, queries.get(i), assessments.get(i));
+                    long searched = System.nanoTime();
+                    measure = hits.value(metrica, cutN);
+                    run.write(i, hits, nplIds);
+                    latency.search.record(searched - start);
+                    latency.resolve.record(System.nanoTime() - searched);
+                    keep(parameter, i, measure);
+                } else {
+                    measure = queryValue(isearcher, parameter, i, queries.get(i), assessments.get(i), latency);
+                }
                 accum += measure;
                 writer.write(i + "," + measure + "\n");
                 System.out.printf("QUERY %2d => %.4f%n", i, measure);
             }
             System.out.println("--------------------------");
             System.out.printf("%s@%d in test: %.4f%n", metrica, cutN, accum/(testInt2-testInt1+1));
+            if (store != null) {
+                store.flush();
+            }
+
+            System.out.println();
+            latency.print("Latency (ms) in test:");
+        }
+    }
+
+    /*
+     * Splits the queries in K folds of consecutive ids, and tests every fold with
+     * the best parameter of the other ones. The folds run concurrently on a
+     * fork/join pool, and so does every parameter of their training.
+     */
+    private static void crossValidate(IndexShards shards, Map<Integer,Query> queries,
+                                      Map<Integer,IntHashSet> assessments) throws IOException {
+        List<Float> grid = grid();
+        long sweepNanos = collectSweep(shards, queries, assessments);
+
+        int nQueries = trainInt2 - trainInt1 + 1;
+        LatencyHistogram.Phases latency = new LatencyHistogram.Phases();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Fold> results = new ArrayList<>();
+        try {
+            List<ForkJoinTask<Fold>> tasks = new ArrayList<>();
+            for (int f = 0; f < folds; f++) {
+                int first = trainInt1 + f * nQueries / folds;
+                int last = trainInt1 + (f + 1) * nQueries / folds - 1;
+                tasks.add(pool.submit(() -> fold(shards, grid, first, last, queries, assessments, latency)));
+            }
+            for (ForkJoinTask<Fold> task : tasks) {
+                results.add(task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        String parameterName = evalMode.equals("jm") ? "lambda" : "nu";
+        System.out.printf("Cross-validation of %s@%d with %d folds (evalMode=%s):%n", metrica, cutN, folds, evalMode);
+        System.out.printf("%6s%12s%8s%12s%12s%n", "fold", "queries", parameterName, "train avg", "test avg");
+        for (int f = 0; f < folds; f++) {
+            Fold fold = results.get(f);
+            float accum = 0;
+            for (float measure : fold.measures) {
+                accum += measure;
+            }
+            System.out.printf("%6d%12s%8" + format(fold.parameter).substring(1) + "%12.4f%12.4f%n", f + 1,
+                    fold.first + "-" + fold.last, fold.parameter, fold.trainAverage, accum / fold.measures.length);
+        }
+        System.out.println();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile));
+             RunWriter run = runFile == null ? null
+                     : new RunWriter(runFile, runTag != null ? runTag : evalMode + "cv" + folds)) {
+            float accum = 0;
+            for (Fold fold : results) {
+                for (int i = fold.first; i <= fold.last; i++) {
+                    float measure = fold.measures[i - fold.first];
+                    if (run != null) {
+                        run.write(i, fold.hits[i - fold.first], nplIds);
+                    }
+                    accum += measure;
+                    writer.write(i + "," + measure + "\n");
+                    System.out.printf("QUERY %2d => %.4f%n", i, measure);
+                }
+            }
+            System.out.println("--------------------------");
+            System.out.printf("%s@%d in test: %.4f%n", metrica, cutN, accum/nQueries);
+        }
+
+        System.out.println();
+        latency.print("Latency (ms) in test:");
+
+        if (sweepStats != null) {
+            System.out.printf("%nPostings of %d queries read once in %.3f ms%n", sweepStats.size(), sweepNanos / 1e6);
         }
     }
 
-    private static float queryAverageValue(IndexSearcher isearcher, Map<Integer,Query> queries, int start, int end,
-                                           Map<Integer,List<Integer>> assessments) throws IOException{
+    /* Trains with every parameter of the grid over the queries out of the fold, then tests the fold */
+    private static Fold fold(IndexShards shards, List<Float> grid, int first, int last, Map<Integer,Query> queries,
+                             Map<Integer,IntHashSet> assessments, LatencyHistogram.Phases latency)
+            throws IOException {
+        List<ForkJoinTask<Float>> averages = new ArrayList<>();
+        for (float parameter : grid) {
+            averages.add(ForkJoinTask.adapt(() -> trainAverage(shards, parameter, first, last, queries, assessments)));
+        }
+        ForkJoinTask.invokeAll(averages);
+
+        /* The first one on ties, as in train */
+        int best = 0;
+        for (int n = 1; n < grid.size(); n++) {
+            if (Float.compare(averages.get(n).join(), averages.get(best).join()) > 0) {
+                best = n;
+            }
+        }
+
+        Fold fold = new Fold(first, last, grid.get(best), averages.get(best).join());
+        IndexSearcher isearcher = searcher(shards, fold.parameter);
+        for (int i = first; i <= last; i++) {
+            latency.parse.record(topics.parseNanos(i));
+            if (runFile != null) {
+                long start = System.nanoTime();
+                EvalCollector hits = search(isearcher, fold.parameter, i, queries.get(i), assessments.get(i));
+                long searched = System.nanoTime();
+                fold.measures[i - first] = hits.value(metrica, cutN);
+                fold.hits[i - first] = hits;
+                latency.search.record(searched - start);
+                latency.resolve.record(System.nanoTime() - searched);
+                keep(fold.parameter, i, fold.measures[i - first]);
+            } else {
+                fold.measures[i - first] = queryValue(isearcher, fold.parameter, i, queries.get(i),
+                        assessments.get(i), latency);
+            }
+        }
+        if (store != null) {
+            store.flush();
+        }
+        return fold;
+    }
+
+    /* Average over the queries with relevant documents out of the fold first-last */
+    private static float trainAverage(IndexShards shards, float parameter, int first, int last,
+                                      Map<Integer,Query> queries, Map<Integer,IntHashSet> assessments)
+            throws IOException {
+        IndexSearcher isearcher = searcher(shards, parameter);
+        float nQueriesWithRelevants = 0;
+        float accum = 0;
+        for (int i = trainInt1; i <= trainInt2; i++) {
+            if ((i >= first && i <= last) || assessments.get(i).size() == 0) {
+                continue;
+            }
+            nQueriesWithRelevants++;
+            accum += queryValue(isearcher, parameter, i, queries.get(i), assessments.get(i), null);
+        }
+        return accum / nQueriesWithRelevants;
+    }
+
+    /* A searcher of its own over the shared reader, so the similarities of the parameters do not race */
+    private static IndexSearcher searcher(IndexShards shards, float parameter) {
+        IndexSearcher isearcher = shards.newSearcher();
+        if (evalMode.equals("jm")) {
+            isearcher.setSimilarity(new LMJelinekMercerSimilarity(parameter));
+        } else {
+            isearcher.setSimilarity(new LMDirichletSimilarity(parameter));
+        }
+        return isearcher;
+    }
+
+    private static float queryAverageValue(IndexSearcher isearcher, float parameter, Map<Integer,Query> queries,
+                                           int start, int end,
+                                           Map<Integer,IntHashSet> assessments, LatencyHistogram.Phases latency,
+                                           StringBuilder row) throws IOException{
         float nQueriesWithRelevants = 0;
         float accum = 0;
 
         for (int i=start; i<=end; i++) {
             // No hay documentos relevantes para la query
             if (assessments.get(i).size() == 0) {
-                System.out.print("Ignored");
+                row.append("Ignored");
                 continue;
             }
             nQueriesWithRelevants++;
-            float measure = queryValue(isearcher, queries.get(i), assessments.get(i));
+            float measure = queryValue(isearcher, parameter, i, queries.get(i), assessments.get(i), latency);
             accum += measure;
-            System.out.printf("%8.4f", measure);
+            row.append(String.format("%8.4f", measure));
 
         }
         return accum / nQueriesWithRelevants;
     }
 
-    private static float queryValue(IndexSearcher isearcher, Query query, List<Integer> relevantDocs) throws IOException{
-        int relevantsRetrieved = 0;
-        float ap = 0;
-
-        ScoreDoc[] hits = isearcher.search(query, cutN).scoreDocs;
-        for (int i=0; i<Math.min(hits.length,cutN); i++) {
-            Document hitDoc = isearcher.doc(hits[i].doc);
-            String docIDNPL = hitDoc.get("DocIDNPL");
-
-            boolean isRelevant = relevantDocs.contains(Integer.parseInt(docIDNPL));
-            if (isRelevant) {
-                relevantsRetrieved++;
-                if (metrica.equals("MAP")) {
-                    ap += (float) relevantsRetrieved / (i+1);
-                }
-            }
+    /* The measure is taken from the store when it has it, and only the ones searched are timed */
+    private static float queryValue(IndexSearcher isearcher, float parameter, int i, Query query, IntHashSet relevantIds,
+                                    LatencyHistogram.Phases latency) throws IOException{
+        Float stored = store == null ? null : store.get(evalMode, parameter, cutN, metrica, i);
+        if (stored != null) {
+            return stored;
         }
 
-        float measure = 0;
-        if (metrica.equals("P")) {
-            measure = (float) relevantsRetrieved / cutN;
-        } else if (metrica.equals("R")) {
-            measure = (float) relevantsRetrieved / relevantDocs.size();
-        } else if (metrica.equals("MAP")) {
-            measure = ap / relevantDocs.size();
+        long start = System.nanoTime();
+        EvalCollector hits = search(isearcher, parameter, i, query, relevantIds);
+        long searched = System.nanoTime();
+        float measure = hits.value(metrica, cutN);
+        if (latency != null) {
+            latency.search.record(searched - start);
+            latency.resolve.record(System.nanoTime() - searched);
         }
+        keep(parameter, i, measure);
         return measure;
     }
 
-    private static Map<Integer,String> readQueries(String file) {
-        Map<Integer,String> queries = new HashMap<>();
-
-        try (Scanner scanner = new Scanner(new File(file))) {
-            int id = 0;
-            String query = "";
-            boolean nextQuery = true;
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
-
-                if (line.equals("/")) {
-                    queries.put(id, query.toLowerCase());
-                    nextQuery = true;
-                    query = "";
-                } else if (nextQuery) {
-                    id = Integer.parseInt(line);
-                    nextQuery = false;
-                } else {
-                    query = query.equals("") ? line : query + " " + line;
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void keep(float parameter, int i, float measure) throws IOException {
+        if (store != null) {
+            store.put(evalMode, parameter, cutN, metrica, i, measure);
         }
-
-        return queries;
     }
 
-    private static Map<Integer,List<Integer>> readAssessments(String file) {
-        Map<Integer,List<Integer>> assessments = new HashMap<>();
-
-        try (Scanner scanner = new Scanner(new File(file))) {
-            int query = 0;
-            boolean nextQuery = true;
-            List<Integer> docs = new LinkedList<>();
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine().trim();
-
-                if (line.equals("/")) {
-                    assessments.put(query, docs);
-                    nextQuery = true;
-                    docs = new LinkedList<>();
-                } else if (nextQuery) {
-                    query = Integer.parseInt(line);
-                    nextQuery = false;
-                } else if (!line.equals("")){
-                    for (String doc : line.split("\\s+")) {
-                        int docID = Integer.parseInt(doc);
-                        docs.add(docID);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /* The searcher has the similarity of the parameter, used when the query was not swept */
+    private static EvalCollector search(IndexSearcher isearcher, float parameter, int i, Query query,
+                                        IntHashSet relevantIds) throws IOException {
+        LMSweep.Statistics stats = sweepStats == null ? null : sweepStats.get(i);
+        if (stats != null) {
+            return sweep.rank(stats, parameter, cutN, relevantDocs.get(i), relevantIds.size());
         }
-
-        return assessments;
+        return EvalCollector.search(isearcher, query, cutN, relevantDocs.get(i), relevantIds.size());
     }
 
     private static String getProperty(String name) {
@@ -0,0 +1,221 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * EvalCollector must rank the hits as IndexSearcher.search(query, n) and give
+ * the metrics computed over its TopDocs, as the evaluators did before.
+ */
+public class EvalCollectorTest {
+
+    private final static int DOCS = 400;
+    private final static String[] METRICS = {"P", "R", "MAP", "NDCG", "RR"};
+    private final static int[] CUTS = {1, 5, 10, 37, 100, 1000};
+
+    private static Directory dir;
+    private static DirectoryReader reader;
+    private static ExecutorService executor;
+    private static List<Query> queries;
+    private static List<FixedBitSet> relevants;
+
+    @BeforeClass
+    public static void index() throws IOException {
+        Random random = new Random(3);
+
+        /* Few words and short documents, so many hits have the same score */
+        dir = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer())
+                .setMaxBufferedDocs(50))) {
+            for (int d = 0; d < DOCS; d++) {
+                StringBuilder contents = new StringBuilder();
+                int length = 1 + random.nextInt(4);
+                for (int n = 0; n < length; n++) {
+                    contents.append('w').append(random.nextInt(8)).append(' ');
+                }
+                Document document = new Document();
+                document.add(new TextField("Contents", contents.toString(), Field.Store.NO));
+                writer.addDocument(document);
+            }
+        }
+        reader = DirectoryReader.open(dir);
+        executor = Executors.newFixedThreadPool(3);
+
+        queries = new ArrayList<>();
+        relevants = new ArrayList<>();
+        for (int q = 0; q < 20; q++) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (int t = 0; t < 1 + random.nextInt(3); t++) {
+                builder.add(new TermQuery(new Term("Contents", "w" + random.nextInt(8))), BooleanClause.Occur.SHOULD);
+            }
+            queries.add(builder.build());
+
+            FixedBitSet relevant = new FixedBitSet(DOCS);
+            for (int d = 0; d < DOCS; d++) {
+                if (random.nextInt(8) == 0) {
+                    relevant.set(d);
+                }
+            }
+            relevants.add(relevant);
+        }
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        executor.shutdown();
+        reader.close();
+        dir.close();
+    }
+
+    @Test
+    public void sameRankingAndMetricsAsTopDocs() throws IOException {
+        for (Similarity similarity : new Similarity[] {new ClassicSimilarity(), new LMDirichletSimilarity(100)}) {
+            IndexSearcher isearcher = new IndexSearcher(reader);
+            isearcher.setSimilarity(similarity);
+            assertSameAsTopDocs(isearcher);
+        }
+    }
+
+    @Test
+    public void sameRankingAndMetricsWithConcurrentSlices() throws IOException {
+        IndexSearcher isearcher = new IndexSearcher(reader, executor);
+        isearcher.setSimilarity(new ClassicSimilarity());
+        assertTrue(reader.leaves().size() > 1);
+        assertSameAsTopDocs(isearcher);
+    }
+
+    @Test
+    public void metricsOfAKnownRanking() {
+        FixedBitSet relevant = new FixedBitSet(10);
+        relevant.set(3);
+        relevant.set(5);
+        relevant.set(9);
+        EvalCollector hits = EvalCollector.ranked(new int[] {1, 3, 4, 5}, new float[] {4, 3, 2, 1}, relevant, 3);
+
+        assertEquals(0.5f, hits.precision(4), 0f);
+        assertEquals(2f / 3, hits.recall(4), 1e-6f);
+        assertEquals((1f / 2 + 2f / 4) / 3, hits.averagePrecision(4), 1e-6f);
+        assertEquals(0.5f, hits.reciprocalRank(4), 0f);
+        assertEquals(0f, hits.reciprocalRank(1), 0f);
+        double dcg = 1 / log2(3) + 1 / log2(5);
+        double idcg = 1 + 1 / log2(3) + 1 / log2(4);
+        assertEquals((float) (dcg / idcg), hits.ndcg(4), 1e-6f);
+        assertEquals(1, hits.firstRelevant());
+    }
+
+    @Test
+    public void relevantDocsOfTheAssessedIds() {
+        IntHashSet relevantIds = new IntHashSet();
+        for (int id : new int[] {7, 2, 5, 40, -1}) {
+            relevantIds.add(id);
+        }
+        /* DocIDNPL 2 is doc 6, 5 is not in the index and 7 is doc 0 */
+        Bits relevant = EvalCollector.relevantDocs(relevantIds, new int[] {-1, 3, 6, -1, -1, -1, -1, 0}, 8);
+
+        assertEquals(8, relevant.length());
+        for (int doc = 0; doc < 8; doc++) {
+            assertEquals("doc " + doc, doc == 0 || doc == 6, relevant.get(doc));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyCollector() {
+        new EvalCollector(0, new FixedBitSet(1), 0);
+    }
+
+    private static void assertSameAsTopDocs(IndexSearcher isearcher) throws IOException {
+        for (int q = 0; q < queries.size(); q++) {
+            FixedBitSet relevant = relevants.get(q);
+            int totalRelevant = relevant.cardinality();
+            for (int cut : CUTS) {
+                ScoreDoc[] topDocs = isearcher.search(queries.get(q), cut).scoreDocs;
+                EvalCollector hits = EvalCollector.search(isearcher, queries.get(q), cut, relevant, totalRelevant);
+
+                String message = queries.get(q) + " cut " + cut;
+                assertEquals(message, topDocs.length, hits.hits());
+                for (int n = 0; n < topDocs.length; n++) {
+                    assertEquals(message + " at " + n, topDocs[n].doc, hits.doc(n));
+                    assertEquals(message + " at " + n, topDocs[n].score, hits.score(n), 0f);
+                    assertEquals(relevant.get(topDocs[n].doc), hits.isRelevant(n));
+                }
+                for (String metric : METRICS) {
+                    assertEquals(message + " " + metric, baseline(metric, topDocs, cut, relevant, totalRelevant),
+                            hits.value(metric, cut), 0f);
+                }
+            }
+        }
+    }
+
+    /* The metrics as SearchEvalNPL computed them over the ScoreDocs */
+    private static float baseline(String metric, ScoreDoc[] hits, int cut, FixedBitSet relevant, int totalRelevant) {
+        int relevantsRetrieved = 0;
+        float ap = 0;
+        double dcg = 0;
+        float rr = 0;
+        for (int n = 0; n < Math.min(hits.length, cut); n++) {
+            if (relevant.get(hits[n].doc)) {
+                relevantsRetrieved++;
+                ap += (float) relevantsRetrieved / (n+1);
+                dcg += 1 / log2(n + 2);
+                if (rr == 0) {
+                    rr = 1f / (n+1);
+                }
+            }
+        }
+        double idcg = 0;
+        for (int n = 0; n < Math.min(totalRelevant, cut); n++) {
+            idcg += 1 / log2(n + 2);
+        }
+
+        switch (metric) {
+            case "P":
+                return (float) relevantsRetrieved / cut;
+            case "R":
+                return (float) relevantsRetrieved / totalRelevant;
+            case "MAP":
+                return ap / totalRelevant;
+            case "NDCG":
+                return (float) (dcg / idcg);
+            case "RR":
+                return rr;
+            default:
+                throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+    }
+
+    private static double log2(int value) {
+        return Math.log(value) / Math.log(2);
+    }
+}
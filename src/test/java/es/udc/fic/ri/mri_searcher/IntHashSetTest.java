@@ -0,0 +1,85 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+public class IntHashSetTest {
+
+    @Test
+    public void addsEveryValueOnce() {
+        IntHashSet set = new IntHashSet();
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertTrue(set.contains(5));
+        assertFalse(set.contains(6));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void keepsZeroAndNegativeValues() {
+        IntHashSet set = new IntHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Integer.MIN_VALUE));
+        assertTrue(set.add(Integer.MAX_VALUE));
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Integer.MIN_VALUE));
+        assertFalse(set.contains(1));
+        assertEquals(4, set.size());
+        assertArrayEquals(new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE}, set.toArray());
+    }
+
+    @Test
+    public void growsPastItsExpectedSize() {
+        IntHashSet set = new IntHashSet(1);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.add(i));
+        }
+        assertEquals(10000, set.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.contains(i));
+        }
+        assertFalse(set.contains(10000));
+        assertFalse(set.contains(-1));
+    }
+
+    @Test
+    public void findsValuesThatCollide() {
+        /* Multiples of a large power of two share the low bits, so they probe the same slots */
+        IntHashSet set = new IntHashSet();
+        for (int i = -50; i < 50; i++) {
+            set.add(i << 20);
+        }
+        assertEquals(100, set.size());
+        for (int i = -50; i < 50; i++) {
+            assertTrue(set.contains(i << 20));
+            assertFalse(set.contains((i << 20) + 1));
+        }
+    }
+
+    @Test
+    public void behavesLikeATreeSet() {
+        Random random = new Random(7);
+        IntHashSet set = new IntHashSet(4);
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            int value = random.nextInt(2000) - 1000;
+            assertEquals(expected.add(value), set.add(value));
+        }
+        for (int value = -1100; value < 1100; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+    }
+}
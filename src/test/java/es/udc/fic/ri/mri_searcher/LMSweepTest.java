@@ -0,0 +1,149 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The rankings of LMSweep must be the ones of a search with
+ * LMJelinekMercerSimilarity and LMDirichletSimilarity, scores included.
+ */
+public class LMSweepTest {
+
+    private final static int DOCS = 300;
+    private final static int SIZE = 50;
+    private final static String[] WORDS = new String[40];
+
+    private static Directory dir;
+    private static DirectoryReader reader;
+    private static List<Query> queries;
+
+    @BeforeClass
+    public static void index() throws IOException {
+        Random random = new Random(42);
+        for (int w = 0; w < WORDS.length; w++) {
+            WORDS[w] = "w" + w;
+        }
+
+        /* Several segments, documents of very different lengths and some deletions */
+        dir = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer())
+                .setMaxBufferedDocs(64))) {
+            for (int d = 0; d < DOCS; d++) {
+                StringBuilder contents = new StringBuilder();
+                int length = 1 + random.nextInt(d % 10 == 0 ? 400 : 40);
+                for (int n = 0; n < length; n++) {
+                    /* Skewed, so some words are frequent and others rare */
+                    int w = (int) (WORDS.length * Math.pow(random.nextDouble(), 2));
+                    contents.append(WORDS[w]).append(' ');
+                }
+                Document document = new Document();
+                document.add(new StringField("DocIDNPL", String.valueOf(d), Field.Store.YES));
+                document.add(new TextField("Contents", contents.toString(), Field.Store.NO));
+                writer.addDocument(document);
+            }
+            writer.deleteDocuments(new Term("DocIDNPL", "7"), new Term("DocIDNPL", "150"));
+        }
+        reader = DirectoryReader.open(dir);
+
+        queries = new ArrayList<>();
+        for (int q = 0; q < 30; q++) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            int terms = 1 + random.nextInt(6);
+            for (int t = 0; t < terms; t++) {
+                Query term = new TermQuery(new Term("Contents", WORDS[random.nextInt(WORDS.length)]));
+                if (random.nextInt(4) == 0) {
+                    term = new BoostQuery(term, 0.5f + random.nextInt(4));
+                }
+                builder.add(term, BooleanClause.Occur.SHOULD);
+            }
+            queries.add(builder.build());
+        }
+        queries.add(new TermQuery(new Term("Contents", "w3")));
+        queries.add(new TermQuery(new Term("Contents", "missing")));
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        reader.close();
+        dir.close();
+    }
+
+    @Test
+    public void jelinekMercerRankingsAreTheSearchOnes() throws IOException {
+        for (float lambda : new float[] {0.001f, 0.1f, 0.35f, 0.5f, 0.9f, 1f}) {
+            IndexSearcher isearcher = new IndexSearcher(reader);
+            isearcher.setSimilarity(new LMJelinekMercerSimilarity(lambda));
+            assertSameRankings(isearcher, "jm", lambda);
+        }
+    }
+
+    @Test
+    public void dirichletRankingsAreTheSearchOnes() throws IOException {
+        for (float mu : new float[] {0f, 1f, 50f, 500f, 2000f, 5000f}) {
+            IndexSearcher isearcher = new IndexSearcher(reader);
+            isearcher.setSimilarity(new LMDirichletSimilarity(mu));
+            assertSameRankings(isearcher, "dir", mu);
+        }
+    }
+
+    @Test
+    public void queriesThatAreNotDisjunctionsOfTermsAreNotSwept() throws IOException {
+        LMSweep sweep = new LMSweep(new IndexSearcher(reader), "Contents", "jm");
+        assertNull(sweep.collect(new PhraseQuery("Contents", "w1", "w2")));
+        assertNull(sweep.collect(new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("Contents", "w1")), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term("Contents", "w2")), BooleanClause.Occur.SHOULD)
+                .build()));
+        assertNull(sweep.collect(new TermQuery(new Term("DocIDNPL", "1"))));
+    }
+
+    private static void assertSameRankings(IndexSearcher isearcher, String model, float parameter)
+            throws IOException {
+        LMSweep sweep = new LMSweep(new IndexSearcher(reader), "Contents", model);
+        FixedBitSet noRelevant = new FixedBitSet(reader.maxDoc());
+        for (Query query : queries) {
+            LMSweep.Statistics stats = sweep.collect(query);
+            assertNotNull(query.toString(), stats);
+
+            EvalCollector searched = EvalCollector.search(isearcher, query, SIZE, noRelevant, 0);
+            EvalCollector swept = sweep.rank(stats, parameter, SIZE, noRelevant, 0);
+            String message = model + " " + parameter + " " + query;
+            assertEquals(message, searched.hits(), swept.hits());
+            for (int rank = 0; rank < searched.hits(); rank++) {
+                assertEquals(message + " at " + rank, searched.doc(rank), swept.doc(rank));
+                assertEquals(message + " at " + rank, searched.score(rank), swept.score(rank), 0f);
+            }
+        }
+    }
+}
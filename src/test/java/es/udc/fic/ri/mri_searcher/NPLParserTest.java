@@ -0,0 +1,121 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NPLParserTest {
+
+    private final static String COLLECTION = "1\ncompact memories have flexible capacities\n  a digital data\n   /\n"
+            + "2\n\n   an electronic   \nmemory  \n   /\n"
+            + "3\n   /\n"
+            + "40\nthermal noise résumé\ncañón\n   /\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsEveryRecord() throws IOException {
+        List<String[]> records = parse(write(COLLECTION), 1024);
+        assertEquals(4, records.size());
+        assertRecord(records.get(0), "1", "compact memories have flexible capacities a digital data");
+        assertRecord(records.get(1), "2", "an electronic memory");
+        assertRecord(records.get(2), "3", "");
+        assertRecord(records.get(3), "40", "thermal noise résumé cañón");
+    }
+
+    @Test
+    public void recordsCrossingTheWindowsAreTheSame() throws IOException {
+        Path file = write(COLLECTION);
+        List<String[]> expected = parse(file, 1024);
+        for (int windowSize = 1; windowSize <= COLLECTION.length() + 1; windowSize++) {
+            List<String[]> records = parse(file, windowSize);
+            assertEquals("window " + windowSize, expected.size(), records.size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertRecord(records.get(n), expected.get(n)[0], expected.get(n)[1]);
+                assertEquals("window " + windowSize, expected.get(n)[2], records.get(n)[2]);
+            }
+        }
+    }
+
+    @Test
+    public void lengthsAddUpToTheRecords() throws IOException {
+        Path file = write(COLLECTION);
+        int total = 0;
+        for (String[] record : parse(file, 7)) {
+            total += Integer.parseInt(record[2]);
+        }
+        assertEquals(COLLECTION.getBytes(StandardCharsets.UTF_8).length, total);
+    }
+
+    @Test
+    public void readsWindowsLineEndings() throws IOException {
+        List<String[]> expected = parse(write(COLLECTION), 1024);
+        for (int windowSize : new int[] {3, 16, 1024}) {
+            List<String[]> records = parse(write(COLLECTION.replace("\n", "\r\n")), windowSize);
+            assertEquals(expected.size(), records.size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertRecord(records.get(n), expected.get(n)[0], expected.get(n)[1]);
+            }
+        }
+    }
+
+    @Test
+    public void ignoresATrailingRecordWithoutSlash() throws IOException {
+        for (String tail : new String[] {"5\nunfinished record\n", "5\nunfinished record", "5", "\n"}) {
+            for (int windowSize : new int[] {2, 1024}) {
+                List<String[]> records = parse(write(COLLECTION + tail), windowSize);
+                assertEquals(tail, 4, records.size());
+                assertRecord(records.get(3), "40", "thermal noise résumé cañón");
+            }
+        }
+    }
+
+    @Test
+    public void readsALastSlashWithoutNewline() throws IOException {
+        List<String[]> records = parse(write("7\nlast record\n   /"), 4);
+        assertEquals(1, records.size());
+        assertRecord(records.get(0), "7", "last record");
+    }
+
+    @Test
+    public void readsAnEmptyFile() throws IOException {
+        try (NPLParser parser = new NPLParser(write(""))) {
+            assertNull(parser.next());
+            assertNull(parser.next());
+        }
+    }
+
+    private static void assertRecord(String[] record, String id, String text) {
+        assertEquals(id, record[0]);
+        assertEquals(text, record[1]);
+    }
+
+    /* Id, text and length of every record */
+    private static List<String[]> parse(Path file, int windowSize) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        try (NPLParser parser = new NPLParser(file, windowSize)) {
+            NPLParser.Record record;
+            while ((record = parser.next()) != null) {
+                records.add(new String[] {record.id(), record.text(), String.valueOf(record.length())});
+            }
+        }
+        return records;
+    }
+
+    private Path write(String contents) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
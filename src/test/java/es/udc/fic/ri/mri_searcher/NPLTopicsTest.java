@@ -0,0 +1,55 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.NavigableMap;
+
+public class NPLTopicsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheQueriesLowercasedAndSortedById() throws IOException {
+        File file = write("10\nTHE Second\n  query\n   /\n2\nFirst query\n   /\n");
+        NavigableMap<Integer,String> queries = NPLTopics.readQueries(file.getPath());
+        assertEquals(2, queries.size());
+        assertEquals(Integer.valueOf(2), queries.firstKey());
+        assertEquals("first query", queries.get(2));
+        assertEquals("the second query", queries.get(10));
+    }
+
+    @Test
+    public void readsTheAssessmentsOfEveryQuery() throws IOException {
+        File file = write("1\n   270  2700\n  1621\n   /\n2\n   /\n3\n  5\n   /\n");
+        Map<Integer,IntHashSet> assessments = NPLTopics.readAssessments(file.getPath());
+        assertEquals(3, assessments.size());
+        assertArrayEquals(new int[] {270, 1621, 2700}, assessments.get(1).toArray());
+        assertEquals(0, assessments.get(2).size());
+        assertArrayEquals(new int[] {5}, assessments.get(3).toArray());
+    }
+
+    @Test
+    public void countsARepeatedDocumentOnce() throws IOException {
+        File file = write("1\n   270  2700  270\n  270\n   /\n");
+        IntHashSet relevant = NPLTopics.readAssessments(file.getPath()).get(1);
+        assertEquals(2, relevant.size());
+        assertArrayEquals(new int[] {270, 2700}, relevant.toArray());
+    }
+
+    private File write(String contents) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
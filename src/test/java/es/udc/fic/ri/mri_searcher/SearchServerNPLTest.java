@@ -0,0 +1,191 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Starts the server on a free port over an index in memory, and checks the
+ * JSON of every endpoint as a client gets it.
+ */
+public class SearchServerNPLTest {
+
+    private final static double REFRESH_SECONDS = 0.05;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Directory dir;
+    private HttpServer server;
+
+    /* "memory" is in 10 three times and in 20 once, so a search for it ranks 10 first */
+    private void start(boolean nrt) throws Exception {
+        dir = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()))) {
+            IndexNPL.indexDoc(writer, "10", "memory memory memory", null);
+            IndexNPL.indexDoc(writer, "20", "memory of magnetic cores", null);
+            IndexNPL.indexDoc(writer, "30", "thermal noise", null);
+        }
+
+        File queries = folder.newFile("query-text");
+        File assessments = folder.newFile("rlv-ass");
+        Files.write(queries.toPath(), "1\nmemory\n   /\n2\nnoise\n   /\n3\nplasma\n   /\n"
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(assessments.toPath(), "1\n 20\n   /\n2\n 30\n   /\n3\n   /\n".getBytes(StandardCharsets.UTF_8));
+        TopicSet topics = TopicSet.load(queries.getPath(), assessments.getPath(), null, new StandardAnalyzer());
+
+        server = SearchServerNPL.start(dir, "dir:10", topics, 0, 2, REFRESH_SECONDS, nrt);
+    }
+
+    @After
+    public void stop() throws Exception {
+        if (server != null) {
+            SearchServerNPL.stop(server);
+        }
+        if (dir != null) {
+            dir.close();
+        }
+    }
+
+    @Test
+    public void searchReturnsTheRanking() throws Exception {
+        start(false);
+        String json = get("/search?q=memory&n=5");
+        assertTrue(json, json.startsWith("{\"query\":\"memory\",\"similarity\":\"dir:10\",\"totalHits\":2,"));
+        assertTrue(json, json.contains("\"hits\":[{\"rank\":1,\"docIDNPL\":10,"));
+        assertTrue(json, json.contains("{\"rank\":2,\"docIDNPL\":20,"));
+
+        json = get("/search?q=memory&n=1&sim=tfidf");
+        assertTrue(json, json.contains("\"similarity\":\"tfidf\""));
+        assertTrue(json, json.contains("\"hits\":[{\"rank\":1,\"docIDNPL\":10,"));
+        assertTrue(json, !json.contains("\"rank\":2"));
+    }
+
+    @Test
+    public void evaluateReturnsTheMetricsOfEveryQuery() throws Exception {
+        start(false);
+        String json = get("/evaluate?queries=1-3&cut=1,10&metrica=P,RR");
+        /* Query 1 finds its relevant document second, query 2 first, query 3 has none */
+        assertTrue(json, json.startsWith("{\"similarity\":\"dir:10\",\"queries\":["
+                + "{\"id\":1,\"values\":{\"P@1\":0.0,\"P@10\":0.1,\"RR@1\":0.0,\"RR@10\":0.5}},"
+                + "{\"id\":2,\"values\":{\"P@1\":1.0,\"P@10\":0.1,\"RR@1\":1.0,\"RR@10\":1.0}},"
+                + "{\"id\":3,\"ignored\":true}]"));
+        assertTrue(json, json.contains("\"P@1\":0.5,\"P@10\":0.1,\"RR@1\":0.5,\"RR@10\":0.75"));
+    }
+
+    @Test
+    public void badRequestsAreRejected() throws Exception {
+        start(true);
+        assertError("q is required", get("/search", 400));
+        assertError("n must be an integer: x", get("/search?q=memory&n=x", 400));
+        assertError("cut must be an integer: ten", get("/evaluate?cut=ten", 400));
+        assertError("Unknown metrica: F", get("/evaluate?metrica=F", 400));
+        assertError("Unknown similarity: jm:high", get("/search?q=memory&sim=jm:high", 400));
+        assertError("/index requires POST", get("/index?id=40", 400));
+        assertError("id must be an integer: abc", post("/index?id=abc", "new memory", 400));
+        assertError("id must be greater or equal than 0: -4", post("/index?id=-4", "new memory", 400));
+        assertError("id is required", post("/index", "new memory", 400));
+    }
+
+    @Test
+    public void indexIsOnlyServedInNearRealTime() throws Exception {
+        start(false);
+        HttpURLConnection connection = connect("/index?id=40");
+        assertEquals(404, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    @Test
+    public void indexedDocumentsAreSearchableAfterTheRefresh() throws Exception {
+        start(true);
+        assertTrue(post("/index?id=40", "memory memory memory memory", 200).startsWith("{\"docIDNPL\":40,"));
+        /* Replaces the relevant document of query 1 with one that does not match it */
+        assertTrue(post("/index?id=20", "plasma", 200).startsWith("{\"docIDNPL\":20,"));
+
+        /* A refresh sees every document added before it, so the first one is there once the last one is */
+        awaitSearch("/search?q=plasma", "\"hits\":[{\"rank\":1,\"docIDNPL\":20,");
+        String json = get("/search?q=memory");
+        assertTrue(json, json.contains("\"totalHits\":2,"));
+        assertTrue(json, json.contains("\"hits\":[{\"rank\":1,\"docIDNPL\":40,"));
+        assertTrue(json, json.contains("{\"rank\":2,\"docIDNPL\":10,"));
+
+        json = get("/evaluate?queries=1&cut=10&metrica=R");
+        assertTrue(json, json.contains("{\"id\":1,\"values\":{\"R@10\":0.0}}"));
+    }
+
+    /* The documents are seen after a refresh, so the search is repeated until its result has the text */
+    private void awaitSearch(String path, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        String json = get(path);
+        while (!json.contains(expected)) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("No refresh gave " + expected + ": " + json);
+            }
+            Thread.sleep(Math.round(REFRESH_SECONDS * 1000));
+            json = get(path);
+        }
+    }
+
+    private static void assertError(String message, String json) {
+        assertEquals(json, "{\"error\":\"" + message + "\"}\n", json);
+    }
+
+    private String get(String path) throws IOException {
+        return get(path, 200);
+    }
+
+    private String get(String path, int status) throws IOException {
+        return response(connect(path), status);
+    }
+
+    private String post(String path, String body, int status) throws IOException {
+        HttpURLConnection connection = connect(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return response(connection, status);
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static String response(HttpURLConnection connection, int status) throws IOException {
+        assertEquals(status, connection.getResponseCode());
+        assertEquals("application/json; charset=utf-8", connection.getContentType());
+        try (InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
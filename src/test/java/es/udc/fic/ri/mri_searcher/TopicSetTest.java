@@ -0,0 +1,116 @@
+package es.udc.fic.ri.mri_searcher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class TopicSetTest {
+
+    private final static String QUERIES = "1\nMeasurement of dielectric constant\n   /\n"
+            + "2\nmagnetic fields AND \"wave propagation\"\n   /\n3\nthe of\n   /\n";
+    private final static String ASSESSMENTS = "1\n 10 20\n   /\n2\n 30\n   /\n3\n   /\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File queries;
+    private File assessments;
+    private File snapshot;
+
+    @Before
+    public void writeTopics() throws Exception {
+        queries = folder.newFile("query-text");
+        assessments = folder.newFile("rlv-ass");
+        snapshot = new File(folder.getRoot(), "topics.snapshot");
+        Files.write(queries.toPath(), QUERIES.getBytes(StandardCharsets.UTF_8));
+        Files.write(assessments.toPath(), ASSESSMENTS.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void snapshotKeepsTheParsedQueriesAndAssessments() throws Exception {
+        TopicSet parsed = TopicSet.load(queries.getPath(), assessments.getPath(), null, new StandardAnalyzer());
+        TopicSet written = load();
+        assertTrue(snapshot.isFile());
+        TopicSet read = load();
+
+        QueryParser parser = new QueryParser("Contents", new StandardAnalyzer());
+        for (TopicSet topics : Arrays.asList(written, read)) {
+            assertEquals(parsed.queries(), topics.queries());
+            for (int id = 1; id <= 3; id++) {
+                assertEquals(parser.parse(parsed.queries().get(id)), topics.query(id));
+                assertArrayEquals(parsed.assessments().get(id).toArray(), topics.assessments().get(id).toArray());
+            }
+        }
+    }
+
+    @Test
+    public void snapshotIsReadWhileTheSourcesDoNotChange() throws Exception {
+        load();
+
+        /* Same size and modification time, so only the snapshot can give the old text */
+        long modified = queries.lastModified();
+        Files.write(queries.toPath(), QUERIES.replace("dielectric", "DIELECTRIC").getBytes(StandardCharsets.UTF_8));
+        assertTrue(queries.setLastModified(modified));
+
+        assertEquals("measurement of dielectric constant", load().queries().get(1));
+    }
+
+    @Test
+    public void snapshotIsRebuiltWhenTheSourcesChange() throws Exception {
+        load();
+        Files.write(queries.toPath(), (QUERIES + "4\nNew query\n   /\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals("new query", load().queries().get(4));
+
+        Files.write(assessments.toPath(), (ASSESSMENTS + "4\n 40\n   /\n").getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(new int[] {40}, load().assessments().get(4).toArray());
+        assertArrayEquals(new int[] {40}, load().assessments().get(4).toArray());
+    }
+
+    @Test
+    public void snapshotIsRebuiltForAnotherAnalyzer() throws Exception {
+        load();
+        Analyzer stopwords = new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+        TopicSet topics = TopicSet.load(queries.getPath(), assessments.getPath(), snapshot.getPath(), stopwords);
+        assertEquals(new QueryParser("Contents", stopwords).parse(topics.queries().get(1)), topics.query(1));
+        assertFalse(topics.query(1).equals(load().query(1)));
+    }
+
+    @Test
+    public void corruptedSnapshotIsRebuilt() throws Exception {
+        TopicSet expected = load();
+        byte[] original = Files.readAllBytes(snapshot.toPath());
+
+        for (int pos = 0; pos < original.length; pos++) {
+            for (byte value : new byte[] {0, (byte) 0x7F, (byte) 0xFF}) {
+                byte[] corrupted = original.clone();
+                corrupted[pos] = value;
+                Files.write(snapshot.toPath(), corrupted);
+                /* A changed term or id can still be read, any other damage must not throw */
+                load();
+            }
+        }
+
+        Files.write(snapshot.toPath(), Arrays.copyOf(original, original.length / 2));
+        assertEquals(expected.queries(), load().queries());
+        assertEquals(expected.query(2), load().query(2));
+    }
+
+    private TopicSet load() throws Exception {
+        return TopicSet.load(queries.getPath(), assessments.getPath(), snapshot.getPath(), new StandardAnalyzer());
+    }
+}